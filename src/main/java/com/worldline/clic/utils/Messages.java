@@ -23,10 +23,12 @@ public enum Messages {
 	;
 
 	/**
-	 * ResourceBundle instance
+	 * ResourceBundle instance. Only properties files are looked up, which
+	 * avoids to search for a bundle class for each candidate locale.
 	 */
-	private static ResourceBundle resourceBundle = ResourceBundle
-			.getBundle("messages");
+	private static ResourceBundle resourceBundle = ResourceBundle.getBundle(
+			"messages", ResourceBundle.Control
+					.getControl(ResourceBundle.Control.FORMAT_PROPERTIES));
 
 	/**
 	 * @return value of the message
@@ -0,0 +1,204 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Snapshot of the load of the host, as used by {@link MavenConcurrencyLimiter}
+ * to detect when forking more Maven processes would overload it. On Linux, it
+ * is read from <code>/proc</code>: load average, available memory and
+ * pressure stall information (PSI). Values which can't be read are negative.
+ *
+ * @version 1.0
+ */
+public class HostLoad {
+
+	/**
+	 * Source of {@link HostLoad} snapshots, allowing to plug other signals
+	 * than the ones of <code>/proc</code>
+	 */
+	public interface Source {
+
+		/**
+		 * @return the current load of the host
+		 */
+		HostLoad sample();
+	}
+
+	/**
+	 * Source reading the load of the current host from <code>/proc</code>,
+	 * falling back to the load average of the JVM elsewhere
+	 */
+	public static final Source PROC = new Source() {
+		@Override
+		public HostLoad sample() {
+			return read(new File("/proc"));
+		}
+	};
+
+	/**
+	 * Number of processors available
+	 */
+	public final int processors;
+	/**
+	 * Load average over the last minute
+	 */
+	public final double loadAverage;
+	/**
+	 * Memory available for new processes without swapping, in bytes
+	 */
+	public final long availableMemory;
+	/**
+	 * Total memory of the host, in bytes
+	 */
+	public final long totalMemory;
+	/**
+	 * Share of the last 10 seconds during which some tasks were stalled on
+	 * memory, in percent
+	 */
+	public final double memoryPressure;
+	/**
+	 * Share of the last 10 seconds during which some tasks were waiting for a
+	 * processor, in percent
+	 */
+	public final double cpuPressure;
+
+	/**
+	 * Creates a snapshot, typically from another {@link Source}
+	 */
+	public HostLoad(final int processors, final double loadAverage,
+			final long availableMemory, final long totalMemory,
+			final double memoryPressure, final double cpuPressure) {
+		this.processors = processors;
+		this.loadAverage = loadAverage;
+		this.availableMemory = availableMemory;
+		this.totalMemory = totalMemory;
+		this.memoryPressure = memoryPressure;
+		this.cpuPressure = cpuPressure;
+	}
+
+	/**
+	 * @return the load average per processor, or a negative value if unknown
+	 */
+	public double getLoadPerProcessor() {
+		return loadAverage < 0 ? -1 : loadAverage / Math.max(1, processors);
+	}
+
+	/**
+	 * @return the share of the memory still available, between 0 and 1, or a
+	 *         negative value if unknown
+	 */
+	public double getAvailableMemoryRatio() {
+		return availableMemory < 0 || totalMemory <= 0 ? -1
+				: (double) availableMemory / totalMemory;
+	}
+
+	/**
+	 * Reads the load of the host from a <code>/proc</code> file system
+	 *
+	 * @param proc
+	 *            the root of the file system, usually <code>/proc</code>
+	 * @return the {@link HostLoad}
+	 */
+	static HostLoad read(final File proc) {
+		final int processors = Runtime.getRuntime().availableProcessors();
+		double loadAverage = -1;
+		final String loadavg = firstLine(new File(proc, "loadavg"));
+		if (loadavg != null)
+			loadAverage = parseDouble(loadavg.split(" ")[0]);
+		else
+			loadAverage = ManagementFactory.getOperatingSystemMXBean()
+					.getSystemLoadAverage();
+		long availableMemory = -1;
+		long totalMemory = -1;
+		final File meminfo = new File(proc, "meminfo");
+		if (meminfo.isFile())
+			try {
+				final BufferedReader reader = reader(meminfo);
+				try {
+					String line;
+					while ((line = reader.readLine()) != null)
+						if (line.startsWith("MemTotal:"))
+							totalMemory = kilobytes(line);
+						else if (line.startsWith("MemAvailable:"))
+							availableMemory = kilobytes(line);
+				} finally {
+					reader.close();
+				}
+			} catch (final IOException e) {
+				// memory stays unknown
+			}
+		return new HostLoad(processors, loadAverage, availableMemory,
+				totalMemory, pressure(new File(proc, "pressure/memory")),
+				pressure(new File(proc, "pressure/cpu")));
+	}
+
+	/**
+	 * Reads the <code>avg10</code> value of the <code>some</code> line of a
+	 * PSI file
+	 */
+	private static double pressure(final File file) {
+		final String line = firstLine(file);
+		if (line == null || !line.startsWith("some"))
+			return -1;
+		for (final String field : line.split(" "))
+			if (field.startsWith("avg10="))
+				return parseDouble(field.substring("avg10=".length()));
+		return -1;
+	}
+
+	private static long kilobytes(final String line) {
+		final String[] fields = line.trim().split("\\s+");
+		try {
+			return Long.parseLong(fields[1]) * 1024;
+		} catch (final RuntimeException e) {
+			return -1;
+		}
+	}
+
+	private static double parseDouble(final String value) {
+		try {
+			return Double.parseDouble(value);
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String firstLine(final File file) {
+		if (!file.isFile())
+			return null;
+		try {
+			final BufferedReader reader = reader(file);
+			try {
+				return reader.readLine();
+			} finally {
+				reader.close();
+			}
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
+	private static BufferedReader reader(final File file) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(
+				file), Charsets.US_ASCII));
+	}
+
+	/**
+	 * Allows to format the load like
+	 * <code>load 1.20/4 cpus, 2048/8192 MiB available, psi memory 0.00% cpu 3.10%</code>
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+				"load %.2f/%d cpus, %d/%d MiB available, psi memory %.2f%% cpu %.2f%%",
+				loadAverage, processors, availableMemory >> 20,
+				totalMemory >> 20, memoryPressure, cpuPressure);
+	}
+}
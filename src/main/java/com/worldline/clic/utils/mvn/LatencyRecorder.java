@@ -0,0 +1,107 @@
+package com.worldline.clic.utils.mvn;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe recorder of latencies, keeping the most recent samples in order
+ * to compute percentiles over a sliding window.
+ *
+ * @version 1.0
+ */
+public class LatencyRecorder {
+
+	/**
+	 * Number of samples kept by default
+	 */
+	public static final int DEFAULT_WINDOW = 4096;
+
+	private final long[] samples;
+
+	private long count;
+
+	private long max;
+
+	/**
+	 * Creates a recorder keeping the {@link #DEFAULT_WINDOW} latest samples
+	 */
+	public LatencyRecorder() {
+		this(DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Creates a recorder keeping a specific number of samples
+	 *
+	 * @param window
+	 *            the number of samples kept to compute percentiles
+	 */
+	public LatencyRecorder(final int window) {
+		samples = new long[window];
+	}
+
+	/**
+	 * Records a latency
+	 *
+	 * @param nanos
+	 *            latency in nanoseconds
+	 */
+	public synchronized void record(final long nanos) {
+		samples[(int) (count % samples.length)] = nanos;
+		count++;
+		if (nanos > max)
+			max = nanos;
+	}
+
+	/**
+	 * Computes a percentile over the samples of the window
+	 *
+	 * @param percentile
+	 *            the percentile to compute, between 0 and 100
+	 * @param unit
+	 *            the {@link TimeUnit} of the returned value
+	 * @return the latency matching with the percentile, 0 if nothing has been
+	 *         recorded yet
+	 */
+	public long percentile(final double percentile, final TimeUnit unit) {
+		final long[] sorted;
+		synchronized (this) {
+			sorted = Arrays.copyOf(samples,
+					(int) Math.min(count, samples.length));
+		}
+		if (sorted.length == 0)
+			return 0;
+		Arrays.sort(sorted);
+		final int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+		return unit.convert(
+				sorted[Math.max(0, Math.min(sorted.length - 1, index))],
+				TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the number of latencies recorded since the creation
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @param unit
+	 *            the {@link TimeUnit} of the returned value
+	 * @return the highest latency recorded since the creation
+	 */
+	public synchronized long getMax(final TimeUnit unit) {
+		return unit.convert(max, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Gives a short description of the distribution, in milliseconds
+	 */
+	@Override
+	public String toString() {
+		return String.format("count=%d p50=%dms p90=%dms p99=%dms max=%dms",
+				getCount(), percentile(50, TimeUnit.MILLISECONDS),
+				percentile(90, TimeUnit.MILLISECONDS),
+				percentile(99, TimeUnit.MILLISECONDS),
+				getMax(TimeUnit.MILLISECONDS));
+	}
+}
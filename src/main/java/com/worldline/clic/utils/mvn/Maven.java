@@ -13,7 +13,6 @@ import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import joptsimple.util.KeyValuePair;
 
-import org.apache.maven.shared.invoker.DefaultInvoker;
 import org.apache.maven.shared.invoker.InvocationOutputHandler;
 import org.apache.maven.shared.invoker.InvocationRequest;
 import org.apache.maven.shared.invoker.InvocationResult;
@@ -92,7 +91,8 @@ public class Maven {
 	 *             if a pom.xml needs to be generated and there's an error
 	 *             during that process
 	 * @throws MavenInvocationException
-	 *             if anything's wrong while executing Maven
+	 *             if anything's wrong while executing Maven, or if the plugin
+	 *             goal is unknown according to {@link MavenPluginDescriptors}
 	 */
 	public static void executeCommandLine(final OptionSet options,
 			final OptionSpec<KeyValuePair> mavenParameters,
@@ -113,6 +113,7 @@ public class Maven {
 			request = MavenCommand.generateCommand(reference, options
 					.valueOf(mavenCommand), MavenClicCommandLine
 					.computeMavenParameters(options, mavenParameters));
+		warn(MavenPluginDescriptors.getDefault().validate(request), null);
 		execute(request);
 	}
 	
@@ -153,7 +154,8 @@ public class Maven {
 	 *             if a pom.xml needs to be generated and there's an error
 	 *             during that process
 	 * @throws MavenInvocationException
-	 *             if anything's wrong while executing Maven
+	 *             if anything's wrong while executing Maven, or if the plugin
+	 *             goal is unknown according to {@link MavenPluginDescriptors}
 	 */
 	public static int executeCommandLine(final OptionSet options,
 			final OptionSpec<KeyValuePair> mavenParameters,
@@ -175,10 +177,29 @@ public class Maven {
 			request = MavenCommand.generateCommand(reference, options
 					.valueOf(mavenCommand), MavenClicCommandLine
 					.computeMavenParameters(options, mavenParameters));
+		warn(MavenPluginDescriptors.getDefault().validate(request),
+				outputHandler);
 		InvocationResult result = execute(request,outputHandler);
         return result.getExitCode();
 	}
 
+	/**
+	 * Reports the warnings of the validation of a request, before its outputs
+	 * 
+	 * @param warnings
+	 *            warnings returned by {@link MavenPluginDescriptors}
+	 * @param outputHandler
+	 *            the {@link InvocationOutputHandler} receiving the outputs of
+	 *            the request, or null to report them on the standard error
+	 */
+	private static void warn(final List<String> warnings,
+			final InvocationOutputHandler outputHandler) {
+		for (final String warning : warnings)
+			if (outputHandler != null)
+				outputHandler.consumeLine("[WARNING] " + warning);
+			else
+				System.err.println("[WARNING] " + warning);
+	}
 
 	/**
 	 * Executes a Maven invocation defined in a {@link InvocationRequest} which
@@ -191,12 +212,40 @@ public class Maven {
 	 */
 	public static StandardOutputError execute(final InvocationRequest request)
 			throws MavenInvocationException {
-		final Invoker invoker = new DefaultInvoker();
+		return execute(request, MavenInstallations.getDefault()
+				.newInvoker());
+	}
+
+	/**
+	 * Executes a Maven invocation defined in a {@link InvocationRequest} using
+	 * a specific {@link Invoker}, like a {@link RecordingInvoker} or a
+	 * {@link ReplayInvoker}. The outputs are collected on the request itself,
+	 * so that the same {@link Invoker} can be shared between threads.
+	 * 
+	 * @param request
+	 *            {@link InvocationRequest} to be executed
+	 * @param invoker
+	 *            the {@link Invoker} executing the request
+	 * @throws MavenInvocationException
+	 *             if anything went wrong while executing Maven
+	 */
+	public static StandardOutputError execute(final InvocationRequest request,
+			final Invoker invoker) throws MavenInvocationException {
+		final InvocationOutputHandler previousOut = request
+				.getOutputHandler(null);
+		final InvocationOutputHandler previousErr = request
+				.getErrorHandler(null);
 		ListOutputHandler err = new ListOutputHandler();
 		ListOutputHandler out = new ListOutputHandler();
-		invoker.setOutputHandler(out);
-		invoker.setErrorHandler(err);
-		final InvocationResult result = invoker.execute(request);
+		request.setOutputHandler(out);
+		request.setErrorHandler(err);
+		final InvocationResult result;
+		try {
+			result = invoker.execute(request);
+		} finally {
+			request.setOutputHandler(previousOut);
+			request.setErrorHandler(previousErr);
+		}
 		return new StandardOutputError(out.outputs, err.outputs,
 				result.getExitCode());
 	}
@@ -219,7 +268,8 @@ public class Maven {
 	public static InvocationResult execute(final InvocationRequest request,
 			final InvocationOutputHandler outputHandler)
 			throws MavenInvocationException {
-		final Invoker invoker = new DefaultInvoker();
+		final Invoker invoker = MavenInstallations.getDefault()
+				.newInvoker();
 		if (outputHandler != null) {
 			invoker.setOutputHandler(outputHandler);
 			invoker.setErrorHandler(outputHandler);
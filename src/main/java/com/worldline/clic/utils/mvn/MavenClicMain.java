@@ -0,0 +1,67 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.IOException;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.apache.maven.shared.invoker.SystemOutHandler;
+
+/**
+ * Command line entry point of the <code>jar-with-dependencies</code> assembly,
+ * executing a single Maven command described with the options of
+ * {@link MavenClicCommandLine}:
+ *
+ * <pre>
+ * java -jar utils-jar-with-dependencies.jar --maven-reference g:a:v --maven-command goal -Dparam=value
+ * </pre>
+ *
+ * It only loads the classes needed by that path, so that it can be started
+ * quickly, and it's used by the <code>clic-mvn</code> launcher which keeps
+ * those classes in a shared archive between launches.
+ *
+ * @version 1.0
+ */
+public final class MavenClicMain {
+
+	private MavenClicMain() {
+	}
+
+	/**
+	 * Executes the Maven command and exits with its exit code
+	 *
+	 * @param args
+	 *            the CLiC Maven command line
+	 */
+	public static void main(final String[] args) {
+		final OptionParser parser = new OptionParser();
+		final MavenClicCommandLine commandLine = new MavenClicCommandLine();
+		commandLine.configureParser(parser);
+		final OptionSet options;
+		try {
+			options = parser.parse(args);
+		} catch (final OptionException e) {
+			System.err.println(e.getMessage());
+			try {
+				parser.printHelpOn(System.err);
+			} catch (final IOException ignored) {
+				// nothing more can be reported
+			}
+			System.exit(2);
+			return;
+		}
+		try {
+			System.exit(Maven.executeCommandLine(options,
+					commandLine.getMavenParameters(),
+					commandLine.getMavenReference(),
+					commandLine.getMavenCommand(), new SystemOutHandler()));
+		} catch (final IOException e) {
+			System.err.println(e.getMessage());
+		} catch (final MavenInvocationException e) {
+			System.err.println(e.getMessage());
+		}
+		System.exit(1);
+	}
+}
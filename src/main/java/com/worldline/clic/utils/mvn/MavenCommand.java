@@ -2,8 +2,10 @@ package com.worldline.clic.utils.mvn;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.maven.shared.invoker.DefaultInvocationRequest;
@@ -311,4 +313,59 @@ public class MavenCommand {
 		return request;
 	}
 
+	/**
+	 * Creates a copy of an {@link InvocationRequest}, allowing to derive
+	 * several executions from a single request. Output and error handlers are
+	 * not copied.
+	 * 
+	 * @param request
+	 *            the {@link InvocationRequest} to be copied
+	 * @return the copy of the request
+	 */
+	public static InvocationRequest copy(final InvocationRequest request) {
+		final InvocationRequest copy = new DefaultInvocationRequest();
+		copy.setBaseDirectory(request.getBaseDirectory());
+		copy.setPomFile(request.getPomFile());
+		copy.setPomFileName(request.getPomFileName());
+		if (request.getGoals() != null)
+			copy.setGoals(new ArrayList<String>(request.getGoals()));
+		if (request.getProperties() != null) {
+			final Properties properties = new Properties();
+			properties.putAll(request.getProperties());
+			copy.setProperties(properties);
+		}
+		if (request.getProfiles() != null)
+			copy.setProfiles(new ArrayList<String>(request.getProfiles()));
+		if (request.getProjects() != null)
+			copy.setProjects(new ArrayList<String>(request.getProjects()));
+		copy.setAlsoMake(request.isAlsoMake());
+		copy.setAlsoMakeDependents(request.isAlsoMakeDependents());
+		copy.setResumeFrom(request.getResumeFrom());
+		copy.setThreads(request.getThreads());
+		copy.setRecursive(request.isRecursive());
+		copy.setInteractive(request.isInteractive());
+		copy.setOffline(request.isOffline());
+		copy.setDebug(request.isDebug());
+		copy.setShowErrors(request.isShowErrors());
+		copy.setShowVersion(request.isShowVersion());
+		copy.setUpdateSnapshots(request.isUpdateSnapshots());
+		copy.setNonPluginUpdates(request.isNonPluginUpdates());
+		copy.setFailureBehavior(request.getFailureBehavior());
+		copy.setGlobalChecksumPolicy(request.getGlobalChecksumPolicy());
+		copy.setLocalRepositoryDirectory(request
+				.getLocalRepositoryDirectory(null));
+		copy.setJavaHome(request.getJavaHome());
+		copy.setMavenOpts(request.getMavenOpts());
+		copy.setUserSettingsFile(request.getUserSettingsFile());
+		copy.setGlobalSettingsFile(request.getGlobalSettingsFile());
+		copy.setToolchainsFile(request.getToolchainsFile());
+		copy.setShellEnvironmentInherited(request
+				.isShellEnvironmentInherited());
+		if (request.getShellEnvironments() != null)
+			for (final Map.Entry<String, String> variable : request
+					.getShellEnvironments().entrySet())
+				copy.addShellEnvironment(variable.getKey(), variable.getValue());
+		return copy;
+	}
+
 }
@@ -0,0 +1,450 @@
+package com.worldline.clic.utils.mvn;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.Invoker;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+
+/**
+ * Limits the number of Maven invocations executed concurrently, adapting that
+ * limit to what the host can sustain instead of using a fixed pool size.
+ *
+ * The limit follows a gradient algorithm on the invocation latencies. Each
+ * latency is compared to the best one observed for the same request, as
+ * identified by {@link MavenRecording#keyOf(InvocationRequest)}: its goals,
+ * properties and project, since invocations of different goals or projects
+ * can't be compared. While invocations stay close to their best latency, the
+ * limit grows by about its square root, and it shrinks as soon as they get
+ * slower because they compete for the host. The first invocation of a request
+ * only gives its reference latency, and failed invocations, which usually stop
+ * early, give none.
+ *
+ * In addition, the {@link HostLoad} is
+ * sampled periodically, and the limit is decreased multiplicatively while the
+ * host is overloaded: high load average, low available memory or high
+ * pressure stall information. Memory signals decrease it twice as fast, as
+ * swapping slows down every build at once.
+ *
+ * @version 1.0
+ */
+public class MavenConcurrencyLimiter {
+
+	/**
+	 * Default delay between two samples of the host load, in milliseconds
+	 */
+	public static final long DEFAULT_SAMPLE_INTERVAL = TimeUnit.SECONDS
+			.toMillis(1);
+
+	/**
+	 * Default load average per processor above which the host is overloaded
+	 */
+	public static final double DEFAULT_MAX_LOAD_PER_PROCESSOR = 2.0;
+
+	/**
+	 * Default share of available memory below which the host is overloaded
+	 */
+	public static final double DEFAULT_MIN_AVAILABLE_MEMORY = 0.1;
+
+	/**
+	 * Default memory pressure, in percent, above which the host is overloaded
+	 */
+	public static final double DEFAULT_MAX_MEMORY_PRESSURE = 10.0;
+
+	/**
+	 * Default processor pressure, in percent, above which the host is
+	 * overloaded
+	 */
+	public static final double DEFAULT_MAX_CPU_PRESSURE = 80.0;
+
+	/**
+	 * Slowdown of the invocations, compared to their best latency, tolerated
+	 * before the limit decreases
+	 */
+	private static final double TOLERANCE = 1.2;
+
+	/**
+	 * Weight of each new sample in the limit
+	 */
+	private static final double SMOOTHING = 0.2;
+
+	/**
+	 * Number of uncontended samples after which the best latency of a request
+	 * has mostly drifted to the latest ones, so that it doesn't stick to an
+	 * exceptionally fast invocation
+	 */
+	private static final int DRIFT_WINDOW = 200;
+
+	/**
+	 * Number of requests whose best latency is remembered
+	 */
+	private static final int MAX_REQUESTS = 1024;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final HostLoad.Source source;
+
+	private final long sampleInterval;
+
+	private final LatencyRecorder latency = new LatencyRecorder();
+
+	private final Map<String, Double> bestLatencies = new LinkedHashMap<String, Double>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				final Map.Entry<String, Double> eldest) {
+			return size() > MAX_REQUESTS;
+		}
+	};
+
+	private double maxLoadPerProcessor = DEFAULT_MAX_LOAD_PER_PROCESSOR;
+
+	private double minAvailableMemory = DEFAULT_MIN_AVAILABLE_MEMORY;
+
+	private double maxMemoryPressure = DEFAULT_MAX_MEMORY_PRESSURE;
+
+	private double maxCpuPressure = DEFAULT_MAX_CPU_PRESSURE;
+
+	private double limit;
+
+	private double slowdown = 1;
+
+	private int inFlight;
+
+	private final Queue<Object> waiting = new ArrayDeque<Object>();
+
+	private long completed;
+
+	private long throttles;
+
+	private boolean overloaded;
+
+	private HostLoad hostLoad;
+
+	private long lastSample;
+
+	/**
+	 * Creates a limiter starting at one invocation per processor, up to four,
+	 * using the load of the current host
+	 */
+	public MavenConcurrencyLimiter() {
+		this(Runtime.getRuntime().availableProcessors(), 1, Runtime
+				.getRuntime().availableProcessors() * 4, HostLoad.PROC,
+				DEFAULT_SAMPLE_INTERVAL);
+	}
+
+	/**
+	 * Creates a limiter
+	 *
+	 * @param initialLimit
+	 *            number of concurrent invocations allowed at first
+	 * @param minLimit
+	 *            number of concurrent invocations always allowed
+	 * @param maxLimit
+	 *            maximum number of concurrent invocations
+	 * @param source
+	 *            the {@link HostLoad.Source} of the host signals, or null to
+	 *            only rely on latencies
+	 * @param sampleInterval
+	 *            minimum delay between two samples of the host load, in
+	 *            milliseconds
+	 */
+	public MavenConcurrencyLimiter(final int initialLimit, final int minLimit,
+			final int maxLimit, final HostLoad.Source source,
+			final long sampleInterval) {
+		if (minLimit < 1 || maxLimit < minLimit)
+			throw new IllegalArgumentException("Invalid limits: " + minLimit
+					+ " to " + maxLimit);
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.source = source;
+		this.sampleInterval = sampleInterval;
+		limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+
+	/**
+	 * Changes the thresholds above which the host is considered as
+	 * overloaded. Negative values disable the corresponding signal.
+	 *
+	 * @param maxLoadPerProcessor
+	 *            load average per processor
+	 * @param minAvailableMemory
+	 *            share of the memory still available, between 0 and 1
+	 * @param maxMemoryPressure
+	 *            memory pressure, in percent
+	 * @param maxCpuPressure
+	 *            processor pressure, in percent
+	 */
+	public synchronized void setOverloadThresholds(
+			final double maxLoadPerProcessor, final double minAvailableMemory,
+			final double maxMemoryPressure, final double maxCpuPressure) {
+		this.maxLoadPerProcessor = maxLoadPerProcessor;
+		this.minAvailableMemory = minAvailableMemory;
+		this.maxMemoryPressure = maxMemoryPressure;
+		this.maxCpuPressure = maxCpuPressure;
+	}
+
+	/**
+	 * Executes a Maven invocation once the limit allows it. Only the latencies
+	 * of successful invocations adapt the limit.
+	 *
+	 * @param request
+	 *            {@link InvocationRequest} to be executed
+	 * @param invoker
+	 *            the {@link Invoker} executing the request
+	 * @return the outputs of the invocation
+	 * @throws MavenInvocationException
+	 *             if anything went wrong while executing Maven
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the limit
+	 */
+	public StandardOutputError execute(final InvocationRequest request,
+			final Invoker invoker) throws MavenInvocationException,
+			InterruptedException {
+		final Permit permit = acquire(MavenRecording.keyOf(request));
+		boolean succeeded = false;
+		try {
+			final StandardOutputError result = Maven.execute(request, invoker);
+			succeeded = result.exitCode == 0;
+			return result;
+		} finally {
+			if (succeeded)
+				permit.release();
+			else
+				permit.cancel();
+		}
+	}
+
+	/**
+	 * Waits until the limit allows one more invocation
+	 *
+	 * @param key
+	 *            identifies the invocations whose latencies can be compared,
+	 *            like {@link MavenRecording#keyOf(InvocationRequest)}
+	 * @return the {@link Permit} to release once the invocation is over
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public Permit acquire(final String key) throws InterruptedException {
+		checkHost();
+		synchronized (this) {
+			// invocations start in arrival order
+			final Object ticket = new Object();
+			waiting.add(ticket);
+			try {
+				while (waiting.peek() != ticket || inFlight >= currentLimit())
+					wait();
+			} finally {
+				waiting.remove(ticket);
+				notifyAll();
+			}
+			inFlight++;
+			return new Permit(key, inFlight <= limit / 2);
+		}
+	}
+
+	/**
+	 * Concurrent invocation slot obtained from {@link #acquire(String)}
+	 */
+	public class Permit {
+
+		private final String key;
+
+		private final boolean uncontended;
+
+		private final long start = System.nanoTime();
+
+		private boolean released;
+
+		Permit(final String key, final boolean uncontended) {
+			this.key = key;
+			this.uncontended = uncontended;
+		}
+
+		/**
+		 * Releases the slot, using the duration of the invocation to adapt
+		 * the limit
+		 */
+		public void release() {
+			if (free())
+				sample(key, uncontended, System.nanoTime() - start);
+			checkHost();
+		}
+
+		/**
+		 * Releases the slot of an invocation which failed, without using its
+		 * duration
+		 */
+		public void cancel() {
+			free();
+		}
+
+		private boolean free() {
+			synchronized (MavenConcurrencyLimiter.this) {
+				if (released)
+					return false;
+				released = true;
+				inFlight--;
+				MavenConcurrencyLimiter.this.notifyAll();
+				return true;
+			}
+		}
+	}
+
+	private int currentLimit() {
+		return Math.max(minLimit, (int) limit);
+	}
+
+	/**
+	 * Adapts the limit to the latency of an invocation
+	 */
+	private synchronized void sample(final String key,
+			final boolean uncontended, final long nanos) {
+		latency.record(nanos);
+		completed++;
+		final Double best = bestLatencies.get(key);
+		if (best == null) {
+			bestLatencies.put(key, (double) nanos);
+			return;
+		}
+		// contended invocations would make the best latency drift to the
+		// latency of an overloaded host
+		if (nanos < best)
+			bestLatencies.put(key, (double) nanos);
+		else if (uncontended)
+			bestLatencies.put(key, best + (nanos - best) / DRIFT_WINDOW);
+		slowdown += (nanos / best - slowdown) * 0.5;
+		// an overloaded host or an underused limit says nothing about the
+		// limit which would be sustainable
+		if (overloaded || inFlight + 1 < limit / 2)
+			return;
+		final double gradient = Math.max(0.5,
+				Math.min(1.0, TOLERANCE / slowdown));
+		final double target = limit * gradient + Math.sqrt(limit);
+		// about limit invocations complete per latency, so that an increase
+		// is spread over all of them, while a decrease applies at once
+		if (target > limit)
+			setLimit(limit + (target - limit) / limit);
+		else
+			setLimit(limit * (1 - SMOOTHING) + target * SMOOTHING);
+	}
+
+	/**
+	 * Samples the host load if the sample interval is elapsed, and decreases
+	 * the limit if the host is overloaded
+	 */
+	private void checkHost() {
+		if (source == null)
+			return;
+		final long now = System.currentTimeMillis();
+		synchronized (this) {
+			if (now - lastSample < sampleInterval)
+				return;
+			lastSample = now;
+		}
+		final HostLoad load = source.sample();
+		synchronized (this) {
+			hostLoad = load;
+			final boolean memory = isAbove(load.memoryPressure,
+					maxMemoryPressure)
+					|| minAvailableMemory >= 0
+					&& load.getAvailableMemoryRatio() >= 0
+					&& load.getAvailableMemoryRatio() < minAvailableMemory;
+			overloaded = memory
+					|| isAbove(load.getLoadPerProcessor(), maxLoadPerProcessor)
+					|| isAbove(load.cpuPressure, maxCpuPressure);
+			if (overloaded) {
+				throttles++;
+				setLimit(limit * (memory ? 0.5 : 0.9));
+			}
+		}
+	}
+
+	private static boolean isAbove(final double value, final double threshold) {
+		return threshold >= 0 && value >= 0 && value > threshold;
+	}
+
+	private void setLimit(final double value) {
+		final double previous = limit;
+		limit = Math.max(minLimit, Math.min(maxLimit, value));
+		if ((int) limit > (int) previous)
+			notifyAll();
+	}
+
+	/**
+	 * @return the number of invocations currently allowed concurrently
+	 */
+	public synchronized int getLimit() {
+		return currentLimit();
+	}
+
+	/**
+	 * @return the number of invocations currently executed
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return the number of invocations waiting for the limit
+	 */
+	public synchronized int getWaiting() {
+		return waiting.size();
+	}
+
+	/**
+	 * @return the number of invocations completed
+	 */
+	public synchronized long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @return the number of times the limit has been decreased because the
+	 *         host was overloaded
+	 */
+	public synchronized long getThrottles() {
+		return throttles;
+	}
+
+	/**
+	 * @return true if the host was overloaded at the last sample
+	 */
+	public synchronized boolean isOverloaded() {
+		return overloaded;
+	}
+
+	/**
+	 * @return the last sampled {@link HostLoad}, or null if none has been
+	 *         sampled yet
+	 */
+	public synchronized HostLoad getHostLoad() {
+		return hostLoad;
+	}
+
+	/**
+	 * @return the {@link LatencyRecorder} of the completed invocations
+	 */
+	public LatencyRecorder getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Allows to format the limiter state along with the latencies
+	 */
+	@Override
+	public synchronized String toString() {
+		return "limit " + currentLimit() + ", in flight " + inFlight
+				+ ", waiting " + waiting.size() + ", completed " + completed
+				+ ", throttles " + throttles + ", latency " + latency
+				+ (hostLoad != null ? ", " + hostLoad : "");
+	}
+}
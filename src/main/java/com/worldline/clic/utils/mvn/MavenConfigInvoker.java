@@ -0,0 +1,298 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.Invoker;
+import org.apache.maven.shared.invoker.InvokerLogger;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+
+import com.google.common.io.Files;
+
+/**
+ * Opt-in {@link Invoker} decorator passing large sets of properties through a
+ * generated <code>.mvn/maven.config</code> file, instead of one
+ * <code>-Dkey=value</code> argument per property. The forked command line
+ * stays short, whatever the number of properties, and Maven reads them from
+ * the file itself.
+ *
+ * The file is written in a private temporary directory, never in the project,
+ * and Maven is pointed at it through the <code>MAVEN_BASEDIR</code> variable
+ * of its launcher: <code>${maven.multiModuleProjectDirectory}</code> is then
+ * that directory instead of the project one. The file is only generated when
+ * the properties would make the command line longer than the threshold, and
+ * when the project doesn't rely on its own <code>.mvn</code> directory: the
+ * base directory and its parents must not contain one, and
+ * <code>MAVEN_BASEDIR</code> must not be set already. Otherwise the
+ * properties are passed as arguments, as usual. The directory is removed once
+ * the invocation is over, and the request is left unchanged.
+ *
+ * @version 1.0
+ */
+public class MavenConfigInvoker implements Invoker {
+
+	/**
+	 * Default length of the <code>-D</code> arguments, in characters, above
+	 * which properties are written in the file. Linux refuses single arguments
+	 * longer than 128 KiB, and the forking shell receives the whole command
+	 * line as one argument.
+	 */
+	public static final int DEFAULT_THRESHOLD = 32 * 1024;
+
+	private static final String UTF_8 = "UTF-8";
+
+	/**
+	 * Variable of the Maven launchers overriding the directory in which
+	 * <code>.mvn</code> is looked up
+	 */
+	private static final String MAVEN_BASEDIR = "MAVEN_BASEDIR";
+
+	private final Invoker delegate;
+
+	private final boolean lines;
+
+	private final int threshold;
+
+	/**
+	 * Creates a {@link MavenConfigInvoker} using the default threshold
+	 *
+	 * @param delegate
+	 *            the {@link Invoker} really executing the requests
+	 * @param installation
+	 *            the {@link MavenInstallation} used by the delegate, which
+	 *            must support <code>.mvn/maven.config</code>
+	 */
+	public MavenConfigInvoker(final Invoker delegate,
+			final MavenInstallation installation) {
+		this(delegate, installation, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Creates a {@link MavenConfigInvoker}
+	 *
+	 * @param delegate
+	 *            the {@link Invoker} really executing the requests
+	 * @param installation
+	 *            the {@link MavenInstallation} used by the delegate, which
+	 *            must support <code>.mvn/maven.config</code>
+	 * @param threshold
+	 *            length of the <code>-D</code> arguments, in characters, above
+	 *            which properties are written in the file. 0 always uses the
+	 *            file, {@link Integer#MAX_VALUE} never does.
+	 */
+	public MavenConfigInvoker(final Invoker delegate,
+			final MavenInstallation installation, final int threshold) {
+		if (!installation.supportsMavenConfig())
+			throw new IllegalArgumentException("Maven " + installation.version
+					+ " doesn't read .mvn/maven.config");
+		this.delegate = delegate;
+		this.lines = installation.supportsMavenConfigLines();
+		this.threshold = threshold;
+	}
+
+	@Override
+	public InvocationResult execute(final InvocationRequest request)
+			throws MavenInvocationException {
+		final Properties properties = request.getProperties();
+		if (properties == null || properties.isEmpty()
+				|| argumentsLength(properties) <= threshold)
+			return delegate.execute(request);
+		if (hasMavenBaseDirectory(request)
+				|| hasProjectDirectory(baseDirectory(request)))
+			return delegate.execute(request);
+		final File directory = Files.createTempDir();
+		final File mvn = new File(directory, ".mvn");
+		final File config = new File(mvn, "maven.config");
+		try {
+			final InvocationRequest copy = MavenCommand.copy(request);
+			copy.setOutputHandler(request.getOutputHandler(null));
+			copy.setErrorHandler(request.getErrorHandler(null));
+			copy.setInputStream(request.getInputStream(null));
+			try {
+				copy.setProperties(write(config, properties));
+			} catch (final IOException e) {
+				throw new MavenInvocationException("Unable to write " + config,
+						e);
+			}
+			copy.addShellEnvironment(MAVEN_BASEDIR, directory.getAbsolutePath());
+			return delegate.execute(copy);
+		} finally {
+			config.delete();
+			mvn.delete();
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Streams the properties which can be read back by Maven in the file
+	 *
+	 * @return the properties which must still be passed as arguments
+	 */
+	private Properties write(final File config, final Properties properties)
+			throws IOException {
+		final Properties remaining = new Properties();
+		if (!config.getParentFile().mkdirs())
+			throw new IOException("Unable to create " + config.getParentFile());
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(config), UTF_8));
+		try {
+			for (final Map.Entry<Object, Object> entry : properties.entrySet()) {
+				final String key = entry.getKey().toString();
+				final String value = entry.getValue().toString();
+				if (!isWritable(key) || !isWritable(value))
+					remaining.put(key, value);
+				else {
+					writer.write("-D");
+					writer.write(key);
+					writer.write('=');
+					writer.write(value);
+					writer.write('\n');
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		return remaining;
+	}
+
+	/**
+	 * Maven reads one argument per line since 3.9.0, and splits the file on
+	 * whitespaces before
+	 */
+	private boolean isWritable(final String text) {
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			if (c == '\n' || c == '\r' || !lines && Character.isWhitespace(c))
+				return false;
+		}
+		return true;
+	}
+
+	private static int argumentsLength(final Properties properties) {
+		long length = 0;
+		for (final Map.Entry<Object, Object> entry : properties.entrySet())
+			length += entry.getKey().toString().length()
+					+ entry.getValue().toString().length() + 4;
+		return (int) Math.min(length, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Resolves the directory Maven will be started from, the same way the
+	 * {@link Invoker}s do
+	 */
+	private File baseDirectory(final InvocationRequest request) {
+		File directory = request.getBaseDirectory();
+		if (directory == null && request.getPomFile() != null)
+			directory = request.getPomFile().getAbsoluteFile().getParentFile();
+		if (directory == null)
+			directory = delegate.getWorkingDirectory();
+		if (directory == null)
+			directory = new File(System.getProperty("user.dir"));
+		return directory.getAbsoluteFile();
+	}
+
+	private static boolean hasMavenBaseDirectory(
+			final InvocationRequest request) {
+		if (request.getShellEnvironments() != null
+				&& request.getShellEnvironments().containsKey(MAVEN_BASEDIR))
+			return true;
+		return request.isShellEnvironmentInherited()
+				&& System.getenv(MAVEN_BASEDIR) != null;
+	}
+
+	/**
+	 * Maven uses the closest directory containing a <code>.mvn</code>
+	 * directory as the project directory, so a generated one must not hide an
+	 * existing one
+	 */
+	private static boolean hasProjectDirectory(final File directory) {
+		for (File parent = directory; parent != null; parent = parent
+				.getParentFile())
+			if (new File(parent, ".mvn").exists())
+				return true;
+		return false;
+	}
+
+	@Override
+	public File getLocalRepositoryDirectory() {
+		return delegate.getLocalRepositoryDirectory();
+	}
+
+	@Override
+	public File getWorkingDirectory() {
+		return delegate.getWorkingDirectory();
+	}
+
+	@Override
+	public InvokerLogger getLogger() {
+		return delegate.getLogger();
+	}
+
+	@Override
+	public File getMavenHome() {
+		return delegate.getMavenHome();
+	}
+
+	@Override
+	public Invoker setMavenHome(final File mavenHome) {
+		delegate.setMavenHome(mavenHome);
+		return this;
+	}
+
+	@Override
+	public File getMavenExecutable() {
+		return delegate.getMavenExecutable();
+	}
+
+	@Override
+	public Invoker setMavenExecutable(final File mavenExecutable) {
+		delegate.setMavenExecutable(mavenExecutable);
+		return this;
+	}
+
+	@Override
+	public Invoker setLocalRepositoryDirectory(final File localRepository) {
+		delegate.setLocalRepositoryDirectory(localRepository);
+		return this;
+	}
+
+	@Override
+	public Invoker setLogger(final InvokerLogger logger) {
+		delegate.setLogger(logger);
+		return this;
+	}
+
+	@Override
+	public Invoker setWorkingDirectory(final File workingDirectory) {
+		delegate.setWorkingDirectory(workingDirectory);
+		return this;
+	}
+
+	@Override
+	public Invoker setInputStream(final InputStream inputStream) {
+		delegate.setInputStream(inputStream);
+		return this;
+	}
+
+	@Override
+	public Invoker setOutputHandler(final InvocationOutputHandler outputHandler) {
+		delegate.setOutputHandler(outputHandler);
+		return this;
+	}
+
+	@Override
+	public Invoker setErrorHandler(final InvocationOutputHandler errorHandler) {
+		delegate.setErrorHandler(errorHandler);
+		return this;
+	}
+}
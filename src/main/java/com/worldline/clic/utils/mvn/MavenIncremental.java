@@ -0,0 +1,447 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.Invoker;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * This class provides an opt-in incremental mode for Maven executions. The
+ * requests generated by {@link MavenCommand} are fingerprinted using their
+ * goals, their properties, their project selection (see
+ * {@link MavenRecording#keyOf(InvocationRequest)}), the options and settings
+ * files changing how Maven resolves artifacts, and the content of the
+ * pom.xml and declared inputs (the source trees by default) of every module of
+ * their reactor, as read by {@link MavenReactor}. Whenever the fingerprint
+ * matches with a previous successful execution whose outputs are still there,
+ * Maven isn't forked and the recorded outcome is returned instead.
+ *
+ * Outputs are only checked for existence: the declared outputs of each module
+ * (the target directory by default) which existed after the successful
+ * execution must still exist, so that a deleted output is rebuilt. Their
+ * content isn't checked.
+ *
+ * Inputs are hashed in parallel, and the hash of a file is reused as long as
+ * its modification date and size don't change.
+ *
+ * @version 1.0
+ */
+public class MavenIncremental {
+
+	/**
+	 * Inputs which are checked by default, relative to the directory of each
+	 * module; the pom.xml of the modules are always checked
+	 */
+	public static final List<String> DEFAULT_INPUTS = Collections
+			.unmodifiableList(Arrays.asList("src"));
+
+	/**
+	 * Outputs which are checked by default, relative to the directory of each
+	 * module
+	 */
+	public static final List<String> DEFAULT_OUTPUTS = Collections
+			.unmodifiableList(Arrays.asList("target"));
+
+	/**
+	 * Extension of the files listing the outputs of a recorded outcome
+	 */
+	private static final String OUTPUTS_EXTENSION = ".outputs";
+
+	/**
+	 * Hash of a file, valid as long as its modification date and size are
+	 * unchanged
+	 */
+	private static class FileStamp {
+		final long lastModified;
+		final long length;
+		final String hash;
+
+		FileStamp(final long lastModified, final long length, final String hash) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.hash = hash;
+		}
+	}
+
+	private final File stateDirectory;
+
+	private final List<String> inputs;
+
+	private final List<String> outputs;
+
+	private final ExecutorService hashers;
+
+	private final ConcurrentMap<File, FileStamp> stamps = new ConcurrentHashMap<File, FileStamp>();
+
+	/**
+	 * Creates an incremental executor checking the {@link #DEFAULT_INPUTS} and
+	 * the {@link #DEFAULT_OUTPUTS}
+	 *
+	 * @param stateDirectory
+	 *            the directory where the outcomes of successful executions are
+	 *            stored
+	 */
+	public MavenIncremental(final File stateDirectory) {
+		this(stateDirectory, DEFAULT_INPUTS);
+	}
+
+	/**
+	 * Creates an incremental executor checking specific inputs and the
+	 * {@link #DEFAULT_OUTPUTS}
+	 *
+	 * @param stateDirectory
+	 *            the directory where the outcomes of successful executions are
+	 *            stored
+	 * @param inputs
+	 *            files and directories, relative to the directory of each
+	 *            module, which are taken into account in the fingerprint
+	 */
+	public MavenIncremental(final File stateDirectory, final List<String> inputs) {
+		this(stateDirectory, inputs, DEFAULT_OUTPUTS);
+	}
+
+	/**
+	 * Creates an incremental executor checking specific inputs and outputs
+	 *
+	 * @param stateDirectory
+	 *            the directory where the outcomes of successful executions are
+	 *            stored
+	 * @param inputs
+	 *            files and directories, relative to the directory of each
+	 *            module, which are taken into account in the fingerprint
+	 * @param outputs
+	 *            files and directories, relative to the directory of each
+	 *            module, which must still exist for a recorded outcome to be
+	 *            reused if they existed after the execution
+	 */
+	public MavenIncremental(final File stateDirectory,
+			final List<String> inputs, final List<String> outputs) {
+		this.stateDirectory = stateDirectory;
+		this.inputs = new ArrayList<String>(inputs);
+		this.outputs = new ArrayList<String>(outputs);
+		this.hashers = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors(), new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable,
+						"maven-incremental-hasher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		stateDirectory.mkdirs();
+	}
+
+	/**
+	 * Executes a request using the default {@link MavenInstallation}, unless
+	 * it's up to date
+	 *
+	 * @param request
+	 *            {@link InvocationRequest} to be executed
+	 * @return the {@link StandardOutputError} of the execution, or the
+	 *         recorded one if the request is up to date
+	 * @throws MavenInvocationException
+	 *             if anything went wrong while executing Maven
+	 */
+	public StandardOutputError execute(final InvocationRequest request)
+			throws MavenInvocationException {
+		return execute(request, MavenInstallations.getDefault()
+				.newInvoker());
+	}
+
+	/**
+	 * Executes a request using a specific {@link Invoker}, unless it's up to
+	 * date
+	 *
+	 * @param request
+	 *            {@link InvocationRequest} to be executed
+	 * @param invoker
+	 *            the {@link Invoker} executing the request
+	 * @return the {@link StandardOutputError} of the execution, or the
+	 *         recorded one if the request is up to date
+	 * @throws MavenInvocationException
+	 *             if anything went wrong while executing Maven
+	 */
+	public StandardOutputError execute(final InvocationRequest request,
+			final Invoker invoker) throws MavenInvocationException {
+		final String fingerprint;
+		final File outcome;
+		try {
+			fingerprint = fingerprint(request);
+			outcome = new File(stateDirectory, fingerprint
+					+ MavenRecording.EXTENSION);
+			if (outcome.isFile() && hasOutputs(request, fingerprint))
+				return MavenRecording.read(outcome).toStandardOutputError();
+		} catch (final IOException e) {
+			throw new MavenInvocationException(
+					"Unable to check if the request is up to date", e);
+		}
+		final long start = System.nanoTime();
+		final StandardOutputError result = Maven.execute(request, invoker);
+		if (result.exitCode == 0)
+			record(request, result, TimeUnit.NANOSECONDS.toMillis(System
+					.nanoTime() - start), fingerprint, outcome);
+		return result;
+	}
+
+	/**
+	 * Checks that the outputs which existed after the recorded execution still
+	 * exist
+	 */
+	private boolean hasOutputs(final InvocationRequest request,
+			final String fingerprint) throws IOException {
+		final File list = new File(stateDirectory, fingerprint
+				+ OUTPUTS_EXTENSION);
+		if (!list.isFile())
+			return false;
+		for (final String output : Files.readLines(list, Charsets.UTF_8))
+			if (!output.isEmpty() && !new File(output).exists())
+				return false;
+		return true;
+	}
+
+	private void record(final InvocationRequest request,
+			final StandardOutputError result, final long duration,
+			final String fingerprint, final File outcome)
+			throws MavenInvocationException {
+		final List<MavenRecording.Line> lines = new ArrayList<MavenRecording.Line>();
+		for (final String line : result.stdout)
+			lines.add(new MavenRecording.Line(MavenRecording.OUTPUT, 0, line));
+		for (final String line : result.stderr)
+			lines.add(new MavenRecording.Line(MavenRecording.ERROR, 0, line));
+		final StringBuilder existing = new StringBuilder();
+		for (final File directory : moduleDirectories(request))
+			for (final String output : outputs) {
+				final File file = new File(directory, output);
+				if (file.exists())
+					existing.append(file.getAbsolutePath()).append('\n');
+			}
+		try {
+			Files.write(existing, new File(stateDirectory, fingerprint
+					+ OUTPUTS_EXTENSION), Charsets.UTF_8);
+			final File temp = File.createTempFile("outcome",
+					MavenRecording.EXTENSION, stateDirectory);
+			new MavenRecording(MavenRecording.goalsOf(request),
+					MavenRecording.propertiesOf(request),
+					MavenRecording.contextOf(request), lines, result.exitCode,
+					duration).write(temp);
+			if (!temp.renameTo(outcome))
+				temp.delete();
+		} catch (final IOException e) {
+			throw new MavenInvocationException(
+					"Unable to record the outcome in " + stateDirectory, e);
+		}
+	}
+
+	/**
+	 * Computes the fingerprint of a request, made of its goals, its
+	 * properties, its project selection, its repository options and settings,
+	 * and the content of the pom.xml and inputs of every module of its reactor
+	 *
+	 * @param request
+	 *            the {@link InvocationRequest} to be fingerprinted
+	 * @return an hexadecimal representation of the fingerprint
+	 * @throws IOException
+	 *             if an input can't be read
+	 */
+	public String fingerprint(final InvocationRequest request)
+			throws IOException {
+		final List<String> paths = new ArrayList<String>();
+		final List<Future<String>> hashes = new ArrayList<Future<String>>();
+		collect(settingsOf(request), "@settings", paths, hashes);
+		collect(request.getGlobalSettingsFile(), "@global-settings", paths,
+				hashes);
+		collect(request.getToolchainsFile(), "@toolchains", paths, hashes);
+		for (final File pom : modulePoms(request)) {
+			final File directory = pom.getParentFile();
+			final String path = directory.getCanonicalPath();
+			collect(pom, path + "/" + pom.getName(), paths, hashes);
+			for (final String input : inputs)
+				collect(new File(directory, input), path + "/" + input, paths,
+						hashes);
+		}
+
+		final MessageDigest digest = sha1();
+		update(digest, MavenRecording.keyOf(request));
+		update(digest, options(request));
+		try {
+			for (int i = 0; i < paths.size(); i++) {
+				update(digest, paths.get(i));
+				update(digest, hashes.get(i).get());
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while hashing inputs", e);
+		} catch (final ExecutionException e) {
+			throw new IOException("Unable to hash inputs", e.getCause());
+		}
+		return hex(digest.digest());
+	}
+
+	/**
+	 * @return the options changing how Maven resolves artifacts and how many
+	 *         threads it uses
+	 */
+	private static String options(final InvocationRequest request) {
+		final StringBuilder options = new StringBuilder();
+		if (request.isOffline())
+			options.append("-o ");
+		if (request.isUpdateSnapshots())
+			options.append("-U ");
+		if (request.getThreads() != null)
+			options.append("-T ").append(request.getThreads()).append(' ');
+		options.append("-s ").append(
+				MavenRecording.canonicalPath(settingsOf(request)));
+		if (request.getGlobalSettingsFile() != null)
+			options.append(" -gs ").append(
+					MavenRecording.canonicalPath(request
+							.getGlobalSettingsFile()));
+		if (request.getToolchainsFile() != null)
+			options.append(" -t ").append(
+					MavenRecording.canonicalPath(request.getToolchainsFile()));
+		if (request.getLocalRepositoryDirectory(null) != null)
+			options.append(" -Dmaven.repo.local=").append(
+					MavenRecording.canonicalPath(request
+							.getLocalRepositoryDirectory(null)));
+		return options.toString();
+	}
+
+	/**
+	 * @return the user settings of a request, which are read from the home
+	 *         directory when they aren't specified
+	 */
+	private static File settingsOf(final InvocationRequest request) {
+		if (request.getUserSettingsFile() != null)
+			return request.getUserSettingsFile();
+		return new File(System.getProperty("user.home"), ".m2/settings.xml");
+	}
+
+	/**
+	 * @return the pom.xml of all the modules of the reactor of a request, or
+	 *         only its own pom.xml if the reactor can't be read
+	 */
+	private static List<File> modulePoms(final InvocationRequest request) {
+		final File pom = MavenRecording.pomOf(request);
+		try {
+			return MavenReactor.of(pom).poms();
+		} catch (final IOException e) {
+			return Collections.singletonList(pom.getAbsoluteFile());
+		}
+	}
+
+	private static List<File> moduleDirectories(final InvocationRequest request) {
+		final List<File> directories = new ArrayList<File>();
+		for (final File pom : modulePoms(request))
+			directories.add(pom.getParentFile());
+		return directories;
+	}
+
+	private void collect(final File file, final String path,
+			final List<String> paths, final List<Future<String>> hashes) {
+		if (file == null)
+			return;
+		if (file.isDirectory()) {
+			final String[] children = file.list();
+			if (children == null)
+				return;
+			Arrays.sort(children);
+			for (final String child : children)
+				collect(new File(file, child), path + "/" + child, paths,
+						hashes);
+		} else if (file.isFile()) {
+			paths.add(path);
+			hashes.add(hash(file));
+		}
+	}
+
+	private Future<String> hash(final File file) {
+		return hashers.submit(new Callable<String>() {
+			@Override
+			public String call() throws IOException {
+				final long lastModified = file.lastModified();
+				final long length = file.length();
+				final FileStamp stamp = stamps.get(file);
+				if (stamp != null && stamp.lastModified == lastModified
+						&& stamp.length == length)
+					return stamp.hash;
+				final String hash = hex(Files.getDigest(file, sha1()));
+				stamps.put(file, new FileStamp(lastModified, length, hash));
+				return hash;
+			}
+		});
+	}
+
+	/**
+	 * Forgets all the recorded outcomes, forcing the next executions
+	 *
+	 * @return the number of outcomes which have been removed
+	 */
+	public int clear() {
+		int count = 0;
+		final File[] files = stateDirectory.listFiles();
+		if (files != null)
+			for (final File file : files)
+				if (file.getName().endsWith(MavenRecording.EXTENSION)
+						&& file.delete())
+					count++;
+				else if (file.getName().endsWith(OUTPUTS_EXTENSION))
+					file.delete();
+		stamps.clear();
+		return count;
+	}
+
+	/**
+	 * Stops the threads used to hash the inputs
+	 */
+	public void shutdown() {
+		hashers.shutdown();
+	}
+
+	/**
+	 * @return the number of files whose hash is currently cached
+	 */
+	public int getCachedStamps() {
+		return stamps.size();
+	}
+
+	private static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void update(final MessageDigest digest, final String value) {
+		digest.update(value.getBytes(Charsets.UTF_8));
+		digest.update((byte) 0);
+	}
+
+	private static String hex(final byte[] bytes) {
+		final StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (final byte b : bytes)
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+					Character.forDigit(b & 0xf, 16));
+		return hex.toString();
+	}
+}
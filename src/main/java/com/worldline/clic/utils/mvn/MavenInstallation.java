@@ -0,0 +1,143 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.File;
+
+import org.apache.maven.shared.invoker.DefaultInvoker;
+import org.apache.maven.shared.invoker.Invoker;
+
+/**
+ * This class represents a Maven installation discovered by
+ * {@link MavenInstallations}, along with the information probed once about it:
+ * its version, the Java home it runs with, and the capabilities depending on
+ * that version.
+ *
+ * @version 1.0
+ */
+public class MavenInstallation {
+
+	/**
+	 * Maven home directory
+	 */
+	public final File home;
+	/**
+	 * Maven executable (<code>bin/mvn</code> or <code>bin/mvn.cmd</code>)
+	 */
+	public final File executable;
+	/**
+	 * Maven version, like <code>3.0.5</code>
+	 */
+	public final String version;
+	/**
+	 * Java home used to run Maven
+	 */
+	public final File javaHome;
+	/**
+	 * Version of the Java runtime, or null if it can't be determined
+	 */
+	public final String javaVersion;
+
+	/**
+	 * Stamp of the installation when it has been probed, allowing to detect
+	 * changes
+	 */
+	final long stamp;
+
+	MavenInstallation(final File home, final File executable,
+			final String version, final File javaHome,
+			final String javaVersion, final long stamp) {
+		this.home = home;
+		this.executable = executable;
+		this.version = version;
+		this.javaHome = javaHome;
+		this.javaVersion = javaVersion;
+		this.stamp = stamp;
+	}
+
+	/**
+	 * Creates a new {@link Invoker} executing requests with this installation,
+	 * without looking up the Maven home and executable again. It can be
+	 * wrapped in a {@link MavenConfigInvoker} to pass large sets of properties
+	 * when the installation supports it.
+	 *
+	 * @return a new {@link Invoker}
+	 */
+	public Invoker newInvoker() {
+		return new DefaultInvoker().setMavenHome(home).setMavenExecutable(
+				executable);
+	}
+
+	/**
+	 * Checks the version of the installation
+	 *
+	 * @param minimum
+	 *            minimum version, like <code>3.3.1</code>
+	 * @return true if this installation version is greater or equal
+	 */
+	public boolean isAtLeast(final String minimum) {
+		return compareVersions(version, minimum) >= 0;
+	}
+
+	/**
+	 * @return true if this installation supports parallel builds using
+	 *         <code>-T</code>
+	 */
+	public boolean supportsThreads() {
+		return isAtLeast("3.0");
+	}
+
+	/**
+	 * @return true if this installation reads its arguments from
+	 *         <code>.mvn/maven.config</code>
+	 */
+	public boolean supportsMavenConfig() {
+		return isAtLeast("3.3.1");
+	}
+
+	/**
+	 * @return true if this installation reads one argument per line of
+	 *         <code>.mvn/maven.config</code>, rather than splitting it on
+	 *         whitespaces
+	 */
+	public boolean supportsMavenConfigLines() {
+		return isAtLeast("3.9.0");
+	}
+
+	/**
+	 * Compares two versions made of numeric components separated with dots.
+	 * Qualifiers like <code>-SNAPSHOT</code> or <code>-beta-1</code> are
+	 * ignored.
+	 */
+	static int compareVersions(final String left, final String right) {
+		final String[] l = withoutQualifier(left).split("\\.");
+		final String[] r = withoutQualifier(right).split("\\.");
+		for (int i = 0; i < Math.max(l.length, r.length); i++) {
+			final int difference = component(l, i) - component(r, i);
+			if (difference != 0)
+				return difference;
+		}
+		return 0;
+	}
+
+	private static String withoutQualifier(final String version) {
+		final int dash = version.indexOf('-');
+		return dash < 0 ? version : version.substring(0, dash);
+	}
+
+	private static int component(final String[] components, final int index) {
+		if (index >= components.length)
+			return 0;
+		try {
+			return Integer.parseInt(components[index]);
+		} catch (final NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Allows to format the installation like <code>version (home)</code>
+	 */
+	@Override
+	public String toString() {
+		return version + " (" + home + ")";
+	}
+}
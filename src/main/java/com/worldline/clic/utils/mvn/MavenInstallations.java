@@ -0,0 +1,357 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.shared.invoker.DefaultInvoker;
+import org.apache.maven.shared.invoker.Invoker;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Registry of the available Maven installations. Installations are discovered
+ * on first use from the <code>maven.home</code> system property, the
+ * <code>M2_HOME</code> and <code>MAVEN_HOME</code> environment variables and
+ * the <code>PATH</code>, in that order, and are probed once for their version
+ * and Java home. The resulting {@link MavenInstallation}s are then reused
+ * across invocations, so that the Maven home and executable don't have to be
+ * looked up for each of them. Creating an {@link Invoker} before the discovery
+ * only looks for the first installation, without probing any of them, so that
+ * a single invocation doesn't pay for the discovery.
+ *
+ * Installations are checked for changes (upgrade, removal) at most once per
+ * refresh interval, and probed again whenever they changed.
+ *
+ * @version 1.0
+ */
+public class MavenInstallations {
+
+	/**
+	 * Default delay between two checks of an installation, in milliseconds
+	 */
+	public static final long DEFAULT_REFRESH_INTERVAL = TimeUnit.SECONDS
+			.toMillis(30);
+
+	private static final boolean WINDOWS = System.getProperty("os.name")
+			.toLowerCase().startsWith("windows");
+
+	private static final Pattern CORE_JAR = Pattern
+			.compile("maven-core-(\\d.*)\\.jar");
+
+	private static final Pattern VERSION_OUTPUT = Pattern
+			.compile("Apache Maven (\\S+).*");
+
+	private static final Pattern JAVA_HOME_OUTPUT = Pattern
+			.compile("(?:Java home: |.*runtime: )(.+)");
+
+	private static final Pattern JAVA_VERSION_OUTPUT = Pattern
+			.compile("Java version: ([^,]+).*");
+
+	/**
+	 * Lazily created registry of the current environment
+	 */
+	private static class DefaultHolder {
+		static final MavenInstallations INSTANCE = new MavenInstallations();
+	}
+
+	private final long refreshInterval;
+
+	private final Map<File, MavenInstallation> installations = new LinkedHashMap<File, MavenInstallation>();
+
+	private long lastCheck;
+
+	private boolean discovered;
+
+	/**
+	 * @return the registry of the installations available in the current
+	 *         environment
+	 */
+	public static MavenInstallations getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	/**
+	 * Creates a registry of the installations available in the current
+	 * environment
+	 */
+	public MavenInstallations() {
+		this(DEFAULT_REFRESH_INTERVAL);
+	}
+
+	/**
+	 * Creates a registry of the installations available in the current
+	 * environment
+	 *
+	 * @param refreshInterval
+	 *            minimum delay between two checks of the installations, in
+	 *            milliseconds
+	 */
+	public MavenInstallations(final long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * Discovers again all the installations from the current environment.
+	 * Installations which have been registered explicitly are kept.
+	 */
+	public synchronized void refresh() {
+		for (final String candidate : candidates())
+			if (candidate != null)
+				register(new File(candidate));
+		lastCheck = System.currentTimeMillis();
+		discovered = true;
+	}
+
+	/**
+	 * @return the Maven homes which may be found in the current environment,
+	 *         in discovery order, null for the missing ones
+	 */
+	private static List<String> candidates() {
+		final List<String> candidates = new ArrayList<String>();
+		candidates.add(System.getProperty("maven.home"));
+		candidates.add(System.getenv("M2_HOME"));
+		candidates.add(System.getenv("MAVEN_HOME"));
+		final String path = System.getenv("PATH");
+		if (path != null)
+			for (final String entry : path.split(File.pathSeparator))
+				candidates.add(homeOfPathEntry(new File(entry)));
+		return candidates;
+	}
+
+	/**
+	 * Registers a Maven installation, probing it if it isn't already known
+	 *
+	 * @param home
+	 *            the Maven home directory
+	 * @return the {@link MavenInstallation}, or null if the directory doesn't
+	 *         contain a Maven installation
+	 */
+	public synchronized MavenInstallation register(final File home) {
+		final File canonical;
+		try {
+			canonical = home.getCanonicalFile();
+		} catch (final IOException e) {
+			return null;
+		}
+		MavenInstallation installation = installations.get(canonical);
+		if (installation == null || installation.stamp != stamp(canonical)) {
+			installation = probe(canonical);
+			if (installation == null)
+				installations.remove(canonical);
+			else
+				installations.put(canonical, installation);
+		}
+		return installation;
+	}
+
+	/**
+	 * @return all the known installations, in discovery order
+	 */
+	public synchronized List<MavenInstallation> list() {
+		check();
+		return new ArrayList<MavenInstallation>(installations.values());
+	}
+
+	/**
+	 * @return the installation which would be used by a {@link DefaultInvoker}
+	 *         , or null if no installation has been found
+	 */
+	public synchronized MavenInstallation getDefaultInstallation() {
+		check();
+		return installations.isEmpty() ? null : installations.values()
+				.iterator().next();
+	}
+
+	/**
+	 * Selects an installation by version
+	 *
+	 * @param version
+	 *            an exact version like <code>3.0.5</code>, or a prefix like
+	 *            <code>3.0</code>
+	 * @return the first installation matching with the version, or null if
+	 *         there's none
+	 */
+	public synchronized MavenInstallation select(final String version) {
+		check();
+		for (final MavenInstallation installation : installations.values())
+			if (installation.version.equals(version)
+					|| installation.version.startsWith(version + "."))
+				return installation;
+		return null;
+	}
+
+	/**
+	 * Creates a new {@link Invoker} using the default installation, or the
+	 * first one found if the installations haven't been discovered yet. It
+	 * falls back to a plain {@link DefaultInvoker} resolving Maven by itself if
+	 * no installation is known.
+	 *
+	 * @return a new {@link Invoker}
+	 */
+	public Invoker newInvoker() {
+		synchronized (this) {
+			if (!discovered)
+				for (final String candidate : candidates())
+					if (candidate != null
+							&& executable(new File(candidate)).isFile())
+						return new DefaultInvoker().setMavenHome(
+								new File(candidate)).setMavenExecutable(
+								executable(new File(candidate)));
+		}
+		final MavenInstallation installation = getDefaultInstallation();
+		return installation == null ? new DefaultInvoker() : installation
+				.newInvoker();
+	}
+
+	/**
+	 * Discovers the installations on first use, then probes again the
+	 * installations which changed since the last check, if the refresh
+	 * interval is elapsed
+	 */
+	private void check() {
+		if (!discovered) {
+			refresh();
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		if (now - lastCheck < refreshInterval)
+			return;
+		lastCheck = now;
+		for (final File home : new ArrayList<File>(installations.keySet()))
+			register(home);
+	}
+
+	/**
+	 * Finds the Maven home of the executable contained in a <code>PATH</code>
+	 * entry. The executable is resolved first, as it's usually a link to the
+	 * <code>bin</code> directory of the installation, like
+	 * <code>/usr/bin/mvn</code>.
+	 *
+	 * @return the Maven home, or null if the entry doesn't contain Maven
+	 */
+	static String homeOfPathEntry(final File entry) {
+		final File executable = new File(entry, WINDOWS ? "mvn.cmd" : "mvn");
+		if (!executable.isFile())
+			return null;
+		try {
+			return executable.getCanonicalFile().getParentFile().getParent();
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
+	private static File executable(final File home) {
+		return new File(home, WINDOWS ? "bin/mvn.cmd" : "bin/mvn");
+	}
+
+	/**
+	 * Computes a stamp changing whenever the installation is upgraded or
+	 * removed
+	 */
+	private static long stamp(final File home) {
+		return new File(home, "lib").lastModified() * 31
+				+ executable(home).lastModified();
+	}
+
+	private static MavenInstallation probe(final File home) {
+		final File executable = executable(home);
+		if (!executable.isFile())
+			return null;
+		final long stamp = stamp(home);
+		final String javaHomeVariable = System.getenv("JAVA_HOME");
+		final File javaHome = new File(
+				javaHomeVariable != null ? javaHomeVariable
+						: System.getProperty("java.home"));
+		final String version = coreVersion(home);
+		if (version != null)
+			return new MavenInstallation(home, executable, version, javaHome,
+					javaVersion(javaHome), stamp);
+		return probeExecution(home, executable, stamp);
+	}
+
+	/**
+	 * Reads the version of the installation from its maven-core jar, which
+	 * avoids to fork Maven
+	 */
+	private static String coreVersion(final File home) {
+		final String[] libraries = new File(home, "lib").list();
+		if (libraries != null)
+			for (final String library : libraries) {
+				final Matcher matcher = CORE_JAR.matcher(library);
+				if (matcher.matches())
+					return matcher.group(1);
+			}
+		return null;
+	}
+
+	/**
+	 * Reads the version of a Java runtime from its release file
+	 */
+	private static String javaVersion(final File javaHome) {
+		final File release = new File(javaHome, "release");
+		if (!release.isFile())
+			return null;
+		try {
+			for (final String line : Files.readLines(release, Charsets.UTF_8))
+				if (line.startsWith("JAVA_VERSION="))
+					return line.substring("JAVA_VERSION=".length()).replace(
+							"\"", "");
+		} catch (final IOException e) {
+			// version stays unknown
+		}
+		return null;
+	}
+
+	/**
+	 * Probes an installation whose layout isn't the expected one by executing
+	 * <code>mvn -v</code>
+	 */
+	private static MavenInstallation probeExecution(final File home,
+			final File executable, final long stamp) {
+		String version = null;
+		String javaHome = System.getProperty("java.home");
+		String javaVersion = null;
+		try {
+			final Process process = new ProcessBuilder(
+					executable.getAbsolutePath(), "-v").redirectErrorStream(
+					true).start();
+			final BufferedReader reader = new BufferedReader(
+					new InputStreamReader(process.getInputStream(),
+							Charsets.UTF_8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					Matcher matcher = VERSION_OUTPUT.matcher(line);
+					if (matcher.matches())
+						version = matcher.group(1);
+					matcher = JAVA_HOME_OUTPUT.matcher(line);
+					if (matcher.matches())
+						javaHome = matcher.group(1).trim();
+					matcher = JAVA_VERSION_OUTPUT.matcher(line);
+					if (matcher.matches())
+						javaVersion = matcher.group(1).trim();
+				}
+			} finally {
+				reader.close();
+			}
+			process.waitFor();
+		} catch (final IOException e) {
+			return null;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		return version == null ? null : new MavenInstallation(home,
+				executable, version, new File(javaHome), javaVersion, stamp);
+	}
+}
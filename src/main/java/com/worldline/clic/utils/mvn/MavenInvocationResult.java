@@ -0,0 +1,51 @@
+package com.worldline.clic.utils.mvn;
+
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.codehaus.plexus.util.cli.CommandLineException;
+
+/**
+ * Simple {@link InvocationResult} implementation, used whenever a result has
+ * to be provided without forking Maven (replays, cached outcomes...).
+ *
+ * @version 1.0
+ */
+public final class MavenInvocationResult implements InvocationResult {
+
+	private final int exitCode;
+
+	private final CommandLineException executionException;
+
+	/**
+	 * Creates a result with the specified exit code
+	 *
+	 * @param exitCode
+	 *            exit code of the invocation
+	 */
+	public MavenInvocationResult(final int exitCode) {
+		this(exitCode, null);
+	}
+
+	/**
+	 * Creates a result with the specified exit code and execution exception
+	 *
+	 * @param exitCode
+	 *            exit code of the invocation
+	 * @param executionException
+	 *            the exception which occurred while executing, if any
+	 */
+	public MavenInvocationResult(final int exitCode,
+			final CommandLineException executionException) {
+		this.exitCode = exitCode;
+		this.executionException = executionException;
+	}
+
+	@Override
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	@Override
+	public CommandLineException getExecutionException() {
+		return executionException;
+	}
+}
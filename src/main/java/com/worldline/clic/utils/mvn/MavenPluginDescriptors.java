@@ -0,0 +1,469 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Cache of the Maven plugin descriptors found in the local repository,
+ * allowing to validate plugin goals and <code>-D</code> parameters before
+ * forking Maven. Unknown goals are rejected, whereas parameters which look
+ * like misspellings of known ones are only reported as warnings: plugins may
+ * read other properties than the ones of their descriptor.
+ *
+ * The <code>META-INF/maven/plugin.xml</code> descriptor of a plugin is
+ * extracted once from its jar, and only its goals and parameters are kept in a
+ * compact index file. The index entry of a plugin is reused as long as its jar
+ * doesn't change.
+ *
+ * Plugins which aren't available in the local repository can't be validated,
+ * and are considered valid: Maven will download them and report the errors
+ * itself.
+ *
+ * @version 1.0
+ */
+public class MavenPluginDescriptors {
+
+	private static final int MAGIC = 0x434c5044; // CLPD
+
+	private static final int FORMAT_VERSION = 1;
+
+	private static final Pattern EXPRESSION = Pattern
+			.compile("\\$\\{([^}]+)\\}");
+
+	/**
+	 * Maximum edit distance for an unknown parameter to be considered as a
+	 * misspelling of a known one
+	 */
+	private static final int MAX_MISSPELLING = 2;
+
+	/**
+	 * Minimum length of the names compared using the edit distance, shorter
+	 * names being too close to each other, like <code>port</code> and
+	 * <code>sort</code>
+	 */
+	private static final int MIN_MISSPELLING_LENGTH = 8;
+
+	/**
+	 * Minimum length of the names compared as prefixes of each other, like
+	 * <code>skipTest</code> and <code>skipTests</code>
+	 */
+	private static final int MIN_PREFIX_LENGTH = 4;
+
+	/**
+	 * Goals and parameters of a plugin
+	 */
+	public static class PluginDescriptor {
+		final long jarLastModified;
+		final long jarLength;
+		/**
+		 * Parameters names of each goal
+		 */
+		public final Map<String, Set<String>> parameters;
+		/**
+		 * User properties (<code>-D</code> parameters) of each goal
+		 */
+		public final Map<String, Set<String>> properties;
+
+		PluginDescriptor(final long jarLastModified, final long jarLength,
+				final Map<String, Set<String>> parameters,
+				final Map<String, Set<String>> properties) {
+			this.jarLastModified = jarLastModified;
+			this.jarLength = jarLength;
+			this.parameters = parameters;
+			this.properties = properties;
+		}
+
+		/**
+		 * @return all the goals of the plugin
+		 */
+		public Set<String> goals() {
+			return parameters.keySet();
+		}
+	}
+
+	/**
+	 * Lazily created cache of the default local repository
+	 */
+	private static class DefaultHolder {
+		static final MavenPluginDescriptors INSTANCE = new MavenPluginDescriptors(
+				new File(System.getProperty("maven.repo.local", System
+						.getProperty("user.home") + "/.m2/repository")),
+				new File(System.getProperty("user.home"),
+						".clic/plugin-descriptors.idx"));
+	}
+
+	private final File localRepository;
+
+	private final File indexFile;
+
+	private final Map<String, PluginDescriptor> descriptors = new HashMap<String, PluginDescriptor>();
+
+	private boolean loaded;
+
+	/**
+	 * @return the cache of the default local repository, indexed in
+	 *         <code>~/.clic/plugin-descriptors.idx</code>
+	 */
+	public static MavenPluginDescriptors getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	/**
+	 * Creates a cache of the plugins of a local repository
+	 *
+	 * @param localRepository
+	 *            the local repository containing the plugins
+	 * @param indexFile
+	 *            the file where goals and parameters are stored
+	 */
+	public MavenPluginDescriptors(final File localRepository,
+			final File indexFile) {
+		this.localRepository = localRepository;
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Validates the plugin goals of a request, using the
+	 * <code>groupId:artifactId:version:goal</code> format, as generated by
+	 * {@link MavenCommand#generateCommand(File, MavenReference, String)}.
+	 * Lifecycle phases and goals using a plugin prefix are not validated.
+	 *
+	 * @param request
+	 *            the {@link InvocationRequest} to be validated
+	 * @return warnings about the parameters which look misspelled, empty if
+	 *         there's none
+	 * @throws MavenInvocationException
+	 *             if a goal doesn't exist
+	 */
+	public List<String> validate(final InvocationRequest request)
+			throws MavenInvocationException {
+		final List<String> warnings = new ArrayList<String>();
+		if (request.getGoals() == null)
+			return warnings;
+		for (final String goal : request.getGoals()) {
+			final String[] elements = goal.split(":");
+			if (elements.length == 4)
+				warnings.addAll(validate(new MavenReference(elements[0] + ":"
+						+ elements[1] + ":" + elements[2]), elements[3],
+						request.getProperties()));
+		}
+		return warnings;
+	}
+
+	/**
+	 * Validates a plugin goal and its parameters
+	 *
+	 * @param reference
+	 *            the {@link MavenReference} of the plugin
+	 * @param goal
+	 *            the goal to be executed
+	 * @param properties
+	 *            the <code>-D</code> parameters of the execution
+	 * @return warnings about the parameters which look misspelled, empty if
+	 *         there's none
+	 * @throws MavenInvocationException
+	 *             if the goal doesn't exist
+	 */
+	public List<String> validate(final MavenReference reference,
+			final String goal, final Properties properties)
+			throws MavenInvocationException {
+		final List<String> warnings = new ArrayList<String>();
+		final PluginDescriptor descriptor;
+		try {
+			descriptor = get(reference);
+		} catch (final IOException e) {
+			return warnings; // unreadable descriptors are left to Maven
+		}
+		if (descriptor == null)
+			return warnings;
+		if (!descriptor.goals().contains(goal))
+			throw new MavenInvocationException("Unknown goal '" + goal
+					+ "' for " + reference + ", available goals: "
+					+ descriptor.goals());
+		if (properties == null)
+			return warnings;
+		final Set<String> known = descriptor.properties.get(goal);
+		for (final String property : properties.stringPropertyNames()) {
+			if (known.contains(property))
+				continue;
+			for (final String candidate : known)
+				if (isMisspelling(property, candidate)) {
+					warnings.add("Unknown parameter '" + property + "' for "
+							+ reference + ":" + goal + ", did you mean '"
+							+ candidate + "'?");
+					break;
+				}
+		}
+		return warnings;
+	}
+
+	/**
+	 * Checks whether an unknown parameter looks like a misspelling of a known
+	 * one: it only differs by its case, it's a truncated or extended version
+	 * of it, or both are long names close to each other
+	 */
+	static boolean isMisspelling(final String property, final String candidate) {
+		if (property.equalsIgnoreCase(candidate))
+			return true;
+		if (Math.abs(candidate.length() - property.length()) > MAX_MISSPELLING)
+			return false;
+		final String left = property.toLowerCase();
+		final String right = candidate.toLowerCase();
+		final int shortest = Math.min(left.length(), right.length());
+		if (shortest >= MIN_PREFIX_LENGTH
+				&& (left.startsWith(right) || right.startsWith(left)))
+			return true;
+		return shortest >= MIN_MISSPELLING_LENGTH
+				&& distance(left, right) <= MAX_MISSPELLING;
+	}
+
+	/**
+	 * Gets the descriptor of a plugin, from the index if it's up to date, or
+	 * from the plugin jar otherwise
+	 *
+	 * @param reference
+	 *            the {@link MavenReference} of the plugin
+	 * @return the {@link PluginDescriptor}, or null if the plugin isn't
+	 *         available in the local repository
+	 * @throws IOException
+	 *             if the plugin jar can't be read
+	 */
+	public synchronized PluginDescriptor get(final MavenReference reference)
+			throws IOException {
+		final String path = reference.groupId.replace('.', '/') + "/"
+				+ reference.artifactId + "/" + reference.version + "/"
+				+ reference.artifactId + "-" + reference.version + ".jar";
+		final File jar = new File(localRepository, path);
+		if (!jar.isFile())
+			return null;
+		// the index is only read once a plugin can be validated
+		if (!loaded)
+			load();
+		final String key = reference.toString();
+		PluginDescriptor descriptor = descriptors.get(key);
+		if (descriptor != null && descriptor.jarLastModified == jar.lastModified()
+				&& descriptor.jarLength == jar.length())
+			return descriptor;
+		descriptor = extract(jar);
+		if (descriptor != null) {
+			descriptors.put(key, descriptor);
+			store();
+		}
+		return descriptor;
+	}
+
+	private static PluginDescriptor extract(final File jar) throws IOException {
+		final ZipFile zip = new ZipFile(jar);
+		try {
+			final ZipEntry entry = zip.getEntry("META-INF/maven/plugin.xml");
+			if (entry == null)
+				return null;
+			final InputStream in = zip.getInputStream(entry);
+			final Document document;
+			try {
+				final DocumentBuilderFactory factory = DocumentBuilderFactory
+						.newInstance();
+				factory.setFeature(
+						"http://apache.org/xml/features/nonvalidating/load-external-dtd",
+						false);
+				document = factory.newDocumentBuilder().parse(in);
+			} catch (final Exception e) {
+				throw new IOException("Invalid plugin descriptor in " + jar, e);
+			} finally {
+				in.close();
+			}
+			final Map<String, Set<String>> parameters = new TreeMap<String, Set<String>>();
+			final Map<String, Set<String>> properties = new TreeMap<String, Set<String>>();
+			final NodeList mojos = document.getElementsByTagName("mojo");
+			for (int i = 0; i < mojos.getLength(); i++) {
+				final Element mojo = (Element) mojos.item(i);
+				final String goal = childText(mojo, "goal");
+				if (goal == null)
+					continue;
+				final Set<String> names = new TreeSet<String>();
+				final Set<String> expressions = new TreeSet<String>();
+				final Element parametersElement = child(mojo, "parameters");
+				if (parametersElement != null)
+					for (final Element parameter : children(parametersElement))
+						if (!"false".equals(childText(parameter, "editable")))
+							names.add(childText(parameter, "name"));
+				final Element configuration = child(mojo, "configuration");
+				if (configuration != null)
+					for (final Element parameter : children(configuration)) {
+						final Matcher matcher = EXPRESSION.matcher(parameter
+								.getTextContent());
+						while (matcher.find())
+							expressions.add(matcher.group(1));
+					}
+				parameters.put(goal, names);
+				properties.put(goal, expressions);
+			}
+			return new PluginDescriptor(jar.lastModified(), jar.length(),
+					parameters, properties);
+		} finally {
+			zip.close();
+		}
+	}
+
+	private static Element child(final Element parent, final String name) {
+		for (final Element child : children(parent))
+			if (name.equals(child.getTagName()))
+				return child;
+		return null;
+	}
+
+	private static String childText(final Element parent, final String name) {
+		final Element child = child(parent, name);
+		return child == null ? null : child.getTextContent().trim();
+	}
+
+	private static Iterable<Element> children(final Element parent) {
+		final List<Element> children = new ArrayList<Element>();
+		for (Node node = parent.getFirstChild(); node != null; node = node
+				.getNextSibling())
+			if (node instanceof Element)
+				children.add((Element) node);
+		return children;
+	}
+
+	/**
+	 * Loads the index file, ignoring it if it's missing or invalid
+	 */
+	private void load() {
+		loaded = true;
+		if (!indexFile.isFile())
+			return;
+		try {
+			final DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(indexFile)));
+			try {
+				if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION)
+					return;
+				final int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					final String key = in.readUTF();
+					final long lastModified = in.readLong();
+					final long length = in.readLong();
+					final int goals = in.readInt();
+					final Map<String, Set<String>> parameters = new TreeMap<String, Set<String>>();
+					final Map<String, Set<String>> properties = new TreeMap<String, Set<String>>();
+					for (int j = 0; j < goals; j++) {
+						final String goal = in.readUTF();
+						parameters.put(goal, readSet(in));
+						properties.put(goal, readSet(in));
+					}
+					descriptors.put(key, new PluginDescriptor(lastModified,
+							length, parameters, properties));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			descriptors.clear(); // rebuilt from the plugin jars
+		}
+	}
+
+	/**
+	 * Writes the index file, replacing it atomically
+	 */
+	private void store() throws IOException {
+		indexFile.getParentFile().mkdirs();
+		final File temp = File.createTempFile("plugin-descriptors", ".idx",
+				indexFile.getParentFile());
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(FORMAT_VERSION);
+			out.writeInt(descriptors.size());
+			for (final Map.Entry<String, PluginDescriptor> entry : descriptors
+					.entrySet()) {
+				final PluginDescriptor descriptor = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeLong(descriptor.jarLastModified);
+				out.writeLong(descriptor.jarLength);
+				out.writeInt(descriptor.parameters.size());
+				for (final String goal : descriptor.goals()) {
+					out.writeUTF(goal);
+					writeSet(out, descriptor.parameters.get(goal));
+					writeSet(out, descriptor.properties.get(goal));
+				}
+			}
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(indexFile)) {
+			indexFile.delete();
+			if (!temp.renameTo(indexFile))
+				temp.delete();
+		}
+	}
+
+	private static Set<String> readSet(final DataInputStream in)
+			throws IOException {
+		final int size = in.readInt();
+		final Set<String> values = new TreeSet<String>();
+		for (int i = 0; i < size; i++)
+			values.add(in.readUTF());
+		return Collections.unmodifiableSet(values);
+	}
+
+	private static void writeSet(final DataOutputStream out,
+			final Set<String> values) throws IOException {
+		out.writeInt(values.size());
+		for (final String value : values)
+			out.writeUTF(value);
+	}
+
+	/**
+	 * Computes the Levenshtein distance between two strings
+	 */
+	static int distance(final String left, final String right) {
+		int[] previous = new int[right.length() + 1];
+		int[] current = new int[right.length() + 1];
+		for (int j = 0; j <= right.length(); j++)
+			previous[j] = j;
+		for (int i = 1; i <= left.length(); i++) {
+			current[0] = i;
+			for (int j = 1; j <= right.length(); j++)
+				current[j] = Math.min(
+						Math.min(current[j - 1] + 1, previous[j] + 1),
+						previous[j - 1]
+								+ (left.charAt(i - 1) == right.charAt(j - 1) ? 0
+										: 1));
+			final int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[right.length()];
+	}
+}
@@ -0,0 +1,632 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.shared.invoker.CommandLineConfigurationException;
+import org.apache.maven.shared.invoker.DefaultInvoker;
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.Invoker;
+import org.apache.maven.shared.invoker.InvokerLogger;
+import org.apache.maven.shared.invoker.MavenCommandLineBuilder;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.apache.maven.shared.invoker.SystemOutHandler;
+import org.apache.maven.shared.invoker.SystemOutLogger;
+import org.codehaus.plexus.util.cli.Commandline;
+
+/**
+ * Pool of pre-launched JVMs executing Maven requests, hiding the JVM startup
+ * and the loading of the Maven core classes while still isolating each
+ * invocation from the calling JVM. Each runner (see {@link MavenRunner})
+ * executes one request at a time and streams its outputs back through a pipe.
+ *
+ * Runners are recycled after a given number of invocations, or as soon as
+ * their heap grows over a threshold. The pool keeps a minimum number of idle
+ * runners ready, grows up to a maximum size when demand increases, and stops
+ * the runners remaining idle for too long.
+ *
+ * Requests are executed through the {@link Invoker}s created by
+ * {@link #newInvoker()}, so that the pool can be used with
+ * {@link Maven#execute(InvocationRequest, Invoker)}. Runners being already
+ * started, requests defining their own <code>MAVEN_OPTS</code>,
+ * <code>JAVA_HOME</code> or shell environment are forked with a
+ * {@link DefaultInvoker} of the same installation instead.
+ *
+ * Runners can't change their current directory: the working directory of a
+ * request is made absolute and given to Maven, along with absolute
+ * <code>-f</code>, <code>-s</code>, <code>-gs</code> and <code>-t</code>
+ * files, but plugins opening files with relative paths resolve them against
+ * the directory of the runner (see {@link MavenRunner}).
+ *
+ * @version 1.0
+ */
+public class MavenProcessPool {
+
+	/**
+	 * A running JVM and its pipes
+	 */
+	private static class Runner {
+		final Process process;
+		final DataOutputStream in;
+		final DataInputStream out;
+		int invocations;
+		long lastUsed = System.currentTimeMillis();
+
+		Runner(final Process process) {
+			this.process = process;
+			this.in = new DataOutputStream(new BufferedOutputStream(
+					process.getOutputStream()));
+			this.out = new DataInputStream(new BufferedInputStream(
+					process.getInputStream()));
+		}
+	}
+
+	/**
+	 * Options of the command line followed by a file
+	 */
+	private static final List<String> FILE_OPTIONS = Arrays.asList("-f",
+			"-s", "-gs", "-t");
+
+	private final MavenInstallation installation;
+
+	private final Class<?> runnerClass;
+
+	private final List<String> jvmArguments;
+
+	private final int minIdle;
+
+	private final int maxSize;
+
+	private final int maxInvocations;
+
+	private final long maxHeap;
+
+	private final long idleTimeout;
+
+	private final Deque<Runner> idle = new ArrayDeque<Runner>();
+
+	private final ScheduledExecutorService maintenance;
+
+	private int size;
+
+	private int spawning;
+
+	private int waiting;
+
+	private long spawned;
+
+	private long recycled;
+
+	private long forked;
+
+	private boolean shutdown;
+
+	/**
+	 * Creates a pool and starts its idle runners in the background
+	 *
+	 * @param installation
+	 *            the {@link MavenInstallation} loaded by the runners
+	 * @param jvmArguments
+	 *            arguments given to the runner JVMs, like <code>-Xmx</code>
+	 * @param minIdle
+	 *            number of idle runners kept ready
+	 * @param maxSize
+	 *            maximum number of runners
+	 * @param maxInvocations
+	 *            number of invocations after which a runner is recycled
+	 * @param maxHeap
+	 *            used heap, in bytes, after which a runner is recycled
+	 * @param idleTimeout
+	 *            delay, in milliseconds, after which a runner exceeding the
+	 *            minimum is stopped if it remained idle
+	 */
+	public MavenProcessPool(final MavenInstallation installation,
+			final List<String> jvmArguments, final int minIdle,
+			final int maxSize, final int maxInvocations, final long maxHeap,
+			final long idleTimeout) {
+		this(installation, MavenRunner.class, jvmArguments, minIdle, maxSize,
+				maxInvocations, maxHeap, idleTimeout);
+	}
+
+	/**
+	 * Creates a pool whose runners use a specific main class, speaking the
+	 * protocol of {@link MavenRunner}
+	 */
+	MavenProcessPool(final MavenInstallation installation,
+			final Class<?> runnerClass, final List<String> jvmArguments,
+			final int minIdle, final int maxSize, final int maxInvocations,
+			final long maxHeap, final long idleTimeout) {
+		if (maxSize <= 0 || minIdle > maxSize)
+			throw new IllegalArgumentException("Invalid pool size: " + minIdle
+					+ "/" + maxSize);
+		this.installation = installation;
+		this.runnerClass = runnerClass;
+		this.jvmArguments = new ArrayList<String>(jvmArguments);
+		this.minIdle = minIdle;
+		this.maxSize = maxSize;
+		this.maxInvocations = maxInvocations;
+		this.maxHeap = maxHeap;
+		this.idleTimeout = idleTimeout;
+		this.maintenance = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable,
+								"maven-process-pool");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		maintenance.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evictIdle();
+			}
+		}, idleTimeout, Math.max(1, idleTimeout / 2), TimeUnit.MILLISECONDS);
+		fill();
+	}
+
+	/**
+	 * Creates a new {@link Invoker} executing its requests on the runners of
+	 * this pool
+	 *
+	 * @return a new {@link Invoker}
+	 */
+	public Invoker newInvoker() {
+		return new PooledInvoker();
+	}
+
+	/**
+	 * Starts runners in the background until the minimum number of idle
+	 * runners is reached
+	 */
+	private synchronized void fill() {
+		while (!shutdown && idle.size() + spawning < minIdle && size < maxSize) {
+			size++;
+			spawning++;
+			maintenance.execute(new Runnable() {
+				@Override
+				public void run() {
+					Runner runner = null;
+					try {
+						runner = spawn();
+					} catch (final IOException e) {
+						// the runner will be spawned again on demand
+					}
+					synchronized (MavenProcessPool.this) {
+						spawning--;
+						if (runner == null)
+							size--;
+						else
+							idle.push(runner);
+						MavenProcessPool.this.notifyAll();
+					}
+				}
+			});
+		}
+	}
+
+	private Runner spawn() throws IOException {
+		final List<String> command = new ArrayList<String>();
+		command.add(new File(javaHome(), "bin/java").getAbsolutePath());
+		command.addAll(jvmArguments);
+		command.add("-cp");
+		command.add(classpath());
+		command.add(runnerClass.getName());
+		command.add(installation.home.getAbsolutePath());
+		final Process process = new ProcessBuilder(command).redirectError(
+				ProcessBuilder.Redirect.INHERIT).start();
+		final Runner runner = new Runner(process);
+		try {
+			if (runner.out.readByte() != MavenRunner.READY)
+				throw new IOException("Unexpected runner handshake");
+		} catch (final IOException e) {
+			process.destroy();
+			throw e;
+		}
+		synchronized (this) {
+			spawned++;
+		}
+		return runner;
+	}
+
+	/**
+	 * @return the Java home of the installation if it's known, or the one of
+	 *         the current JVM
+	 */
+	private File javaHome() {
+		if (installation.javaHome != null
+				&& new File(installation.javaHome, "bin/java").isFile())
+			return installation.javaHome;
+		return new File(System.getProperty("java.home"));
+	}
+
+	private String classpath() throws IOException {
+		final String classpath = location(MavenRunner.class);
+		if (runnerClass == MavenRunner.class)
+			return classpath;
+		return classpath + File.pathSeparator + location(runnerClass);
+	}
+
+	private static String location(final Class<?> type) throws IOException {
+		try {
+			return new File(type.getProtectionDomain().getCodeSource()
+					.getLocation().toURI()).getAbsolutePath();
+		} catch (final URISyntaxException e) {
+			throw new IOException("Unable to locate the runner classes", e);
+		}
+	}
+
+	private Runner borrow() throws IOException, InterruptedException {
+		boolean create = false;
+		synchronized (this) {
+			while (true) {
+				if (shutdown)
+					throw new IOException("Pool is shut down");
+				if (!idle.isEmpty()) {
+					final Runner runner = idle.pop();
+					fill();
+					return runner;
+				}
+				// runners already starting are awaited rather than started twice
+				if (size < maxSize && spawning <= waiting) {
+					size++;
+					create = true;
+					break;
+				}
+				waiting++;
+				try {
+					wait();
+				} finally {
+					waiting--;
+				}
+			}
+		}
+		try {
+			return spawn();
+		} catch (final IOException e) {
+			synchronized (this) {
+				size--;
+				notifyAll();
+			}
+			throw e;
+		} finally {
+			if (create)
+				fill();
+		}
+	}
+
+	private synchronized void release(final Runner runner, final boolean broken,
+			final long usedHeap) {
+		runner.invocations++;
+		runner.lastUsed = System.currentTimeMillis();
+		if (shutdown || broken || runner.invocations >= maxInvocations
+				|| usedHeap > maxHeap) {
+			runner.process.destroy();
+			size--;
+			recycled++;
+			fill();
+		} else
+			idle.push(runner);
+		notifyAll();
+	}
+
+	private synchronized void evictIdle() {
+		final long now = System.currentTimeMillis();
+		final Iterator<Runner> runners = idle.descendingIterator();
+		while (runners.hasNext() && idle.size() > minIdle) {
+			final Runner runner = runners.next();
+			if (now - runner.lastUsed > idleTimeout) {
+				runners.remove();
+				runner.process.destroy();
+				size--;
+			}
+		}
+	}
+
+	/**
+	 * Stops all the runners. Runners executing a request are stopped once the
+	 * request is completed.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		for (final Runner runner : idle)
+			runner.process.destroy();
+		size -= idle.size();
+		idle.clear();
+		maintenance.shutdown();
+		notifyAll();
+	}
+
+	/**
+	 * @return the number of runners, busy or idle
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the number of idle runners
+	 */
+	public synchronized int getIdle() {
+		return idle.size();
+	}
+
+	/**
+	 * @return the number of runners started since the creation of the pool
+	 */
+	public synchronized long getSpawned() {
+		return spawned;
+	}
+
+	/**
+	 * @return the number of runners recycled since the creation of the pool
+	 */
+	public synchronized long getRecycled() {
+		return recycled;
+	}
+
+	/**
+	 * @return the number of requests forked outside of the runners, because
+	 *         they define their own environment
+	 */
+	public synchronized long getForked() {
+		return forked;
+	}
+
+	/**
+	 * Checks if a request can be executed by a runner, whose JVM and
+	 * environment are the ones of the pool
+	 */
+	private boolean isPoolable(final InvocationRequest request) {
+		return request.getMavenOpts() == null
+				&& (request.getJavaHome() == null || sameFile(
+						request.getJavaHome(), javaHome()))
+				&& request.isShellEnvironmentInherited()
+				&& request.getShellEnvironments().isEmpty();
+	}
+
+	private static boolean sameFile(final File file, final File other) {
+		if (file == null || other == null)
+			return file == other;
+		return MavenRecording.canonicalPath(file).equals(
+				MavenRecording.canonicalPath(other));
+	}
+
+	/**
+	 * {@link Invoker} sending its requests to the runners of the pool
+	 */
+	private class PooledInvoker implements Invoker {
+
+		private InvocationOutputHandler outputHandler = new SystemOutHandler();
+
+		private InvocationOutputHandler errorHandler = new SystemOutHandler();
+
+		private InvokerLogger logger = new SystemOutLogger();
+
+		private File localRepositoryDirectory;
+
+		private File workingDirectory;
+
+		@Override
+		public InvocationResult execute(final InvocationRequest request)
+				throws MavenInvocationException {
+			if (!isPoolable(request))
+				return fork(request);
+			final MavenCommandLineBuilder builder = new MavenCommandLineBuilder();
+			builder.setLogger(logger);
+			builder.setMavenHome(installation.home);
+			builder.setMavenExecutable(installation.executable);
+			if (localRepositoryDirectory != null)
+				builder.setLocalRepositoryDirectory(localRepositoryDirectory);
+			if (workingDirectory != null)
+				builder.setWorkingDirectory(workingDirectory);
+			final Commandline commandline;
+			try {
+				commandline = builder.build(request);
+			} catch (final CommandLineConfigurationException e) {
+				throw new MavenInvocationException(
+						"Error configuring command-line. Reason: "
+								+ e.getMessage(), e);
+			}
+			final InvocationOutputHandler out = request
+					.getOutputHandler(outputHandler);
+			final InvocationOutputHandler err = request
+					.getErrorHandler(errorHandler);
+
+			final Runner runner;
+			try {
+				runner = borrow();
+			} catch (final IOException e) {
+				throw new MavenInvocationException(
+						"Unable to get a Maven runner", e);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MavenInvocationException(
+						"Interrupted while waiting for a Maven runner", e);
+			}
+			final File directory = commandline.getWorkingDirectory() != null ? commandline
+					.getWorkingDirectory().getAbsoluteFile() : new File(
+					System.getProperty("user.dir"));
+			final List<String> arguments = arguments(commandline, directory);
+			boolean broken = true;
+			long usedHeap = 0;
+			try {
+				MavenRunner.writeString(runner.in, directory.getPath());
+				runner.in.writeInt(arguments.size());
+				for (final String argument : arguments)
+					MavenRunner.writeString(runner.in, argument);
+				runner.in.flush();
+				while (true) {
+					final int frame = runner.out.readByte();
+					if (frame == MavenRunner.EXIT) {
+						final int exitCode = runner.out.readInt();
+						usedHeap = runner.out.readLong();
+						broken = false;
+						return new MavenInvocationResult(exitCode);
+					}
+					final String line = MavenRunner.readString(runner.out);
+					final InvocationOutputHandler handler = frame == MavenRunner.ERROR ? err
+							: out;
+					if (handler != null)
+						handler.consumeLine(line);
+				}
+			} catch (final IOException e) {
+				throw new MavenInvocationException(
+						"Error while communicating with the Maven runner", e);
+			} finally {
+				release(runner, broken, usedHeap);
+			}
+		}
+
+		/**
+		 * Forks a request which can't be executed by the runners
+		 */
+		private InvocationResult fork(final InvocationRequest request)
+				throws MavenInvocationException {
+			synchronized (MavenProcessPool.this) {
+				forked++;
+			}
+			final Invoker invoker = installation.newInvoker()
+					.setLogger(logger).setOutputHandler(outputHandler)
+					.setErrorHandler(errorHandler);
+			if (localRepositoryDirectory != null)
+				invoker.setLocalRepositoryDirectory(localRepositoryDirectory);
+			if (workingDirectory != null)
+				invoker.setWorkingDirectory(workingDirectory);
+			return invoker.execute(request);
+		}
+
+		/**
+		 * Computes the arguments sent to a runner: unquoted, with the files
+		 * resolved against the working directory, and with an explicit pom.xml
+		 */
+		private List<String> arguments(final Commandline commandline,
+				final File directory) {
+			final List<String> arguments = new ArrayList<String>();
+			boolean pom = false;
+			String previous = null;
+			for (final String quoted : commandline.getArguments()) {
+				String argument = unquote(quoted);
+				if (FILE_OPTIONS.contains(previous)
+						&& !new File(argument).isAbsolute())
+					argument = new File(directory, argument).getPath();
+				pom |= "-f".equals(previous);
+				arguments.add(argument);
+				previous = argument;
+			}
+			final File defaultPom = new File(directory, "pom.xml");
+			if (!pom && defaultPom.isFile()) {
+				arguments.add(0, defaultPom.getPath());
+				arguments.add(0, "-f");
+			}
+			return arguments;
+		}
+
+		/**
+		 * Removes the quotes added by {@link MavenCommandLineBuilder} for a
+		 * shell, arguments being given as is to the runners
+		 */
+		private String unquote(final String argument) {
+			if (argument.length() > 1 && argument.startsWith("\"")
+					&& argument.endsWith("\""))
+				return argument.substring(1, argument.length() - 1);
+			return argument;
+		}
+
+		@Override
+		public File getLocalRepositoryDirectory() {
+			return localRepositoryDirectory;
+		}
+
+		@Override
+		public File getWorkingDirectory() {
+			return workingDirectory;
+		}
+
+		@Override
+		public InvokerLogger getLogger() {
+			return logger;
+		}
+
+		@Override
+		public File getMavenHome() {
+			return installation.home;
+		}
+
+		@Override
+		public Invoker setMavenHome(final File mavenHome) {
+			if (!sameFile(mavenHome, installation.home))
+				throw new IllegalArgumentException("The runners of this pool use "
+						+ installation.home + ", not " + mavenHome);
+			return this;
+		}
+
+		@Override
+		public File getMavenExecutable() {
+			return installation.executable;
+		}
+
+		@Override
+		public Invoker setMavenExecutable(final File mavenExecutable) {
+			if (!sameFile(mavenExecutable, installation.executable))
+				throw new IllegalArgumentException("The runners of this pool use "
+						+ installation.executable + ", not " + mavenExecutable);
+			return this;
+		}
+
+		@Override
+		public Invoker setLocalRepositoryDirectory(final File localRepository) {
+			this.localRepositoryDirectory = localRepository;
+			return this;
+		}
+
+		@Override
+		public Invoker setLogger(final InvokerLogger logger) {
+			this.logger = logger;
+			return this;
+		}
+
+		@Override
+		public Invoker setWorkingDirectory(final File workingDirectory) {
+			this.workingDirectory = workingDirectory;
+			return this;
+		}
+
+		@Override
+		public Invoker setInputStream(final InputStream inputStream) {
+			return this;
+		}
+
+		@Override
+		public Invoker setOutputHandler(
+				final InvocationOutputHandler outputHandler) {
+			this.outputHandler = outputHandler;
+			return this;
+		}
+
+		@Override
+		public Invoker setErrorHandler(final InvocationOutputHandler errorHandler) {
+			this.errorHandler = errorHandler;
+			return this;
+		}
+	}
+}
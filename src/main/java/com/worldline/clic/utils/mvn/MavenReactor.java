@@ -0,0 +1,620 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.Invoker;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * This class reads the module graph of a multi-module project in order to
+ * run its reactor in parallel. It provides two modes:
+ * <ul>
+ * <li>{@link #withParallelism(InvocationRequest)} sets the <code>-T</code>
+ * option of a request according to the width of the graph</li>
+ * <li>{@link #executeSliced(InvocationRequest)} splits the modules into
+ * independent <code>-pl</code> slices executed as concurrent invocations, then
+ * builds the aggregators once, and merges the results back into one
+ * {@link StandardOutputError}</li>
+ * </ul>
+ *
+ * Modules are linked by their parent, their dependencies, the imported BOMs
+ * of their dependency management, their build plugins (managed or not) and the
+ * dependencies of those plugins, including the ones declared in profiles.
+ * Whenever a link can't be modeled, like a reference whose coordinates use an
+ * unknown property and may point to a module of the reactor, or an extension
+ * built by the reactor, the modules form a single slice.
+ *
+ * Modules are selected using their <code>groupId:artifactId</code>, so that
+ * modules outside of the root directory (like <code>../module</code>) can be
+ * selected too. Module graphs are cached, and read again only when one of the
+ * pom.xml files changed.
+ *
+ * @version 1.0
+ */
+public class MavenReactor {
+
+	private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+	private static final ConcurrentMap<File, MavenReactor> CACHE = new ConcurrentHashMap<File, MavenReactor>();
+
+	/**
+	 * A module of the reactor
+	 */
+	private static class Module {
+		final String id;
+		final File pom;
+		final boolean aggregator;
+		String parent;
+		final List<String> dependencies = new ArrayList<String>();
+		final List<String> extensions = new ArrayList<String>();
+		final Map<String, String> properties = new HashMap<String, String>();
+
+		Module(final String id, final File pom, final boolean aggregator) {
+			this.id = id;
+			this.pom = pom;
+			this.aggregator = aggregator;
+		}
+	}
+
+	private final Map<String, Module> modules = new LinkedHashMap<String, Module>();
+
+	private final long stamp;
+
+	private MavenReactor(final File root) throws IOException {
+		read(root);
+		stamp = stamp();
+	}
+
+	/**
+	 * Gets the module graph of a project, reading it only if it isn't cached
+	 * or if one of its pom.xml files changed
+	 *
+	 * @param pom
+	 *            the root pom.xml of the project
+	 * @return the {@link MavenReactor} of the project
+	 * @throws IOException
+	 *             if a pom.xml can't be read
+	 */
+	public static MavenReactor of(final File pom) throws IOException {
+		final File root = pom.getCanonicalFile();
+		final MavenReactor cached = CACHE.get(root);
+		if (cached != null && cached.stamp == cached.stamp())
+			return cached;
+		final MavenReactor reactor = new MavenReactor(root);
+		CACHE.put(root, reactor);
+		return reactor;
+	}
+
+	private long stamp() {
+		long stamp = modules.size();
+		for (final Module module : modules.values())
+			stamp = stamp * 31 + module.pom.lastModified();
+		return stamp;
+	}
+
+	private void read(final File pom) throws IOException {
+		final Element project;
+		try {
+			final Document document = DocumentBuilderFactory.newInstance()
+					.newDocumentBuilder().parse(pom);
+			project = document.getDocumentElement();
+		} catch (final Exception e) {
+			throw new IOException("Unable to read " + pom, e);
+		}
+		final Element parent = child(project, "parent");
+		String groupId = text(project, "groupId");
+		if (groupId == null && parent != null)
+			groupId = text(parent, "groupId");
+		final String artifactId = text(project, "artifactId");
+		final String id = groupId + ":" + artifactId;
+		final Element modulesElement = child(project, "modules");
+		final Module module = new Module(id, pom, modulesElement != null);
+		if (parent != null) {
+			module.parent = text(parent, "groupId") + ":"
+					+ text(parent, "artifactId");
+			// properties are inherited from parents read beforehand
+			final Module parentModule = modules.get(module.parent);
+			if (parentModule != null)
+				module.properties.putAll(parentModule.properties);
+			module.properties.put("project.parent.groupId",
+					text(parent, "groupId"));
+			module.properties.put("project.parent.artifactId",
+					text(parent, "artifactId"));
+		}
+		module.properties.put("project.groupId", groupId);
+		module.properties.put("pom.groupId", groupId);
+		module.properties.put("project.artifactId", artifactId);
+		module.properties.put("pom.artifactId", artifactId);
+		final Element properties = child(project, "properties");
+		if (properties != null)
+			for (Node node = properties.getFirstChild(); node != null; node = node
+					.getNextSibling())
+				if (node instanceof Element)
+					module.properties.put(((Element) node).getTagName(), node
+							.getTextContent().trim());
+		references(module, project);
+		for (final Element profiles : children(project, "profiles"))
+			for (final Element profile : children(profiles, "profile"))
+				references(module, profile);
+		if (modules.put(id, module) != null)
+			return; // already read through another path
+		if (modulesElement != null)
+			for (final Element child : children(modulesElement, "module")) {
+				final String name = child.getTextContent().trim();
+				File childPom = new File(pom.getParentFile(), name);
+				if (childPom.isDirectory())
+					childPom = new File(childPom, "pom.xml");
+				if (childPom.isFile())
+					read(childPom.getCanonicalFile());
+			}
+	}
+
+	/**
+	 * Reads the references to other artifacts which may link a module to
+	 * other modules of the reactor
+	 *
+	 * @param module
+	 *            the {@link Module} referencing the artifacts
+	 * @param container
+	 *            the project or one of its profiles
+	 */
+	private static void references(final Module module, final Element container) {
+		for (final Element dependencies : children(container, "dependencies"))
+			dependencies(module, dependencies);
+		for (final Element management : children(container,
+				"dependencyManagement"))
+			for (final Element dependencies : children(management,
+					"dependencies"))
+				for (final Element dependency : children(dependencies,
+						"dependency"))
+					if ("import".equals(text(dependency, "scope")))
+						module.dependencies.add(reference(module, dependency,
+								null));
+		for (final Element build : children(container, "build")) {
+			for (final Element plugins : children(build, "plugins"))
+				plugins(module, plugins);
+			for (final Element management : children(build,
+					"pluginManagement"))
+				for (final Element plugins : children(management, "plugins"))
+					plugins(module, plugins);
+			for (final Element extensions : children(build, "extensions"))
+				for (final Element extension : children(extensions,
+						"extension"))
+					module.extensions.add(reference(module, extension, null));
+		}
+	}
+
+	private static void dependencies(final Module module,
+			final Element dependencies) {
+		for (final Element dependency : children(dependencies, "dependency"))
+			module.dependencies.add(reference(module, dependency, null));
+	}
+
+	private static void plugins(final Module module, final Element plugins) {
+		for (final Element plugin : children(plugins, "plugin")) {
+			final String id = reference(module, plugin,
+					"org.apache.maven.plugins");
+			module.dependencies.add(id);
+			if ("true".equals(text(plugin, "extensions")))
+				module.extensions.add(id);
+			for (final Element dependencies : children(plugin, "dependencies"))
+				dependencies(module, dependencies);
+		}
+	}
+
+	/**
+	 * @return the <code>groupId:artifactId</code> of a referenced artifact,
+	 *         whose known properties are replaced
+	 */
+	private static String reference(final Module module,
+			final Element element, final String defaultGroupId) {
+		final String groupId = text(element, "groupId");
+		return resolve(module, groupId == null ? defaultGroupId : groupId)
+				+ ":" + resolve(module, text(element, "artifactId"));
+	}
+
+	private static String resolve(final Module module, final String value) {
+		String resolved = value;
+		for (int i = 0; resolved != null && resolved.contains("${") && i < 10; i++)
+			for (final Map.Entry<String, String> property : module.properties
+					.entrySet())
+				if (property.getValue() != null)
+					resolved = resolved.replace("${" + property.getKey() + "}",
+							property.getValue());
+		return resolved;
+	}
+
+	/**
+	 * Checks if all the links between the modules are known: references
+	 * using unknown properties must not match with any module, and modules
+	 * must not be extensions of other modules
+	 *
+	 * @return true if the modules can be built as independent slices
+	 */
+	public boolean isSliceable() {
+		for (final Module module : modules.values()) {
+			for (final String dependency : module.dependencies)
+				if (dependency.contains("${") && matchesModule(dependency))
+					return false;
+			for (final String extension : module.extensions)
+				if (matchesModule(extension))
+					return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the <code>groupId:artifactId</code> may be the one of
+	 *         a module, unresolved properties matching with anything
+	 */
+	private boolean matchesModule(final String reference) {
+		if (modules.containsKey(reference))
+			return true;
+		final int separator = reference.indexOf(':');
+		final String groupId = reference.substring(0, separator);
+		final String artifactId = reference.substring(separator + 1);
+		for (final String id : modules.keySet()) {
+			final int moduleSeparator = id.indexOf(':');
+			if ((groupId.contains("${") || groupId.equals(id.substring(0,
+					moduleSeparator)))
+					&& (artifactId.contains("${") || artifactId.equals(id
+							.substring(moduleSeparator + 1))))
+				return true;
+		}
+		return false;
+	}
+
+	private static Element child(final Element parent, final String name) {
+		final List<Element> children = children(parent, name);
+		return children.isEmpty() ? null : children.get(0);
+	}
+
+	private static List<Element> children(final Element parent,
+			final String name) {
+		final List<Element> children = new ArrayList<Element>();
+		for (Node node = parent.getFirstChild(); node != null; node = node
+				.getNextSibling())
+			if (node instanceof Element
+					&& name.equals(((Element) node).getTagName()))
+				children.add((Element) node);
+		return children;
+	}
+
+	private static String text(final Element parent, final String name) {
+		final Element child = child(parent, name);
+		return child == null ? null : child.getTextContent().trim();
+	}
+
+	/**
+	 * @return the modules this module depends on within the reactor
+	 */
+	private List<Module> requirements(final Module module) {
+		final List<Module> requirements = new ArrayList<Module>();
+		if (module.parent != null && modules.containsKey(module.parent))
+			requirements.add(modules.get(module.parent));
+		for (final String dependency : module.dependencies)
+			if (modules.containsKey(dependency))
+				requirements.add(modules.get(dependency));
+		return requirements;
+	}
+
+	/**
+	 * Computes the width of the module graph, which is the highest number of
+	 * modules which can be built at the same time
+	 *
+	 * @return the width of the graph
+	 */
+	public int width() {
+		final Map<String, Integer> levels = new HashMap<String, Integer>();
+		final Map<Integer, Integer> widths = new HashMap<Integer, Integer>();
+		int width = 0;
+		for (final Module module : modules.values()) {
+			final int level = level(module, levels, new ArrayList<String>());
+			final Integer count = widths.get(level);
+			widths.put(level, count == null ? 1 : count + 1);
+			width = Math.max(width, widths.get(level));
+		}
+		return width;
+	}
+
+	private int level(final Module module, final Map<String, Integer> levels,
+			final List<String> visiting) {
+		final Integer known = levels.get(module.id);
+		if (known != null)
+			return known;
+		if (visiting.contains(module.id))
+			return 0; // cycles are reported by Maven itself
+		visiting.add(module.id);
+		int level = 0;
+		for (final Module requirement : requirements(module))
+			level = Math.max(level, level(requirement, levels, visiting) + 1);
+		visiting.remove(module.id);
+		levels.put(module.id, level);
+		return level;
+	}
+
+	/**
+	 * Splits the modules into independent slices. Modules are linked by their
+	 * parents and the artifacts they reference, except for parents which are
+	 * also aggregators: those are shared by the slices, and are built after
+	 * them, see {@link #aggregators()}. All the modules form a single slice if
+	 * the reactor isn't {@link #isSliceable()}.
+	 *
+	 * @return the <code>groupId:artifactId</code> of the modules of each slice
+	 */
+	public List<List<String>> slices() {
+		if (!isSliceable()) {
+			final List<String> slice = new ArrayList<String>();
+			for (final Module module : modules.values())
+				if (!module.aggregator)
+					slice.add(module.id);
+			return Collections.singletonList(slice);
+		}
+		final Map<String, String> components = new HashMap<String, String>();
+		for (final Module module : modules.values())
+			if (!module.aggregator)
+				components.put(module.id, module.id);
+		for (final Module module : modules.values()) {
+			if (module.aggregator)
+				continue;
+			for (final Module requirement : requirements(module))
+				if (!requirement.aggregator)
+					components.put(find(components, module.id),
+							find(components, requirement.id));
+		}
+		final Map<String, List<String>> slices = new LinkedHashMap<String, List<String>>();
+		for (final Module module : modules.values()) {
+			if (module.aggregator)
+				continue;
+			final String component = find(components, module.id);
+			if (!slices.containsKey(component))
+				slices.put(component, new ArrayList<String>());
+			slices.get(component).add(module.id);
+		}
+		return new ArrayList<List<String>>(slices.values());
+	}
+
+	private static String find(final Map<String, String> components,
+			final String id) {
+		String root = id;
+		while (!components.get(root).equals(root))
+			root = components.get(root);
+		components.put(id, root);
+		return root;
+	}
+
+	/**
+	 * Sets the <code>-T</code> option of a request executed by the default
+	 * {@link MavenInstallation}, see
+	 * {@link #withParallelism(InvocationRequest, MavenInstallation)}
+	 *
+	 * @param request
+	 *            the {@link InvocationRequest} executed on a multi-module
+	 *            project
+	 * @return the request
+	 * @throws IOException
+	 *             if the module graph can't be read
+	 */
+	public static InvocationRequest withParallelism(
+			final InvocationRequest request) throws IOException {
+		return withParallelism(request, MavenInstallations.getDefault()
+				.getDefaultInstallation());
+	}
+
+	/**
+	 * Sets the <code>-T</code> option of a request executed by an
+	 * {@link Invoker}, see
+	 * {@link #withParallelism(InvocationRequest, MavenInstallation)}
+	 *
+	 * @param request
+	 *            the {@link InvocationRequest} executed on a multi-module
+	 *            project
+	 * @param invoker
+	 *            the {@link Invoker} executing the request, whose Maven home
+	 *            is probed if it's set
+	 * @return the request
+	 * @throws IOException
+	 *             if the module graph can't be read
+	 */
+	public static InvocationRequest withParallelism(
+			final InvocationRequest request, final Invoker invoker)
+			throws IOException {
+		if (invoker.getMavenHome() == null)
+			return withParallelism(request);
+		return withParallelism(request, MavenInstallations.getDefault()
+				.register(invoker.getMavenHome()));
+	}
+
+	/**
+	 * Sets the <code>-T</code> option of a request, according to the width
+	 * of the module graph and the number of cores, if the installation
+	 * supports it. Requests already defining their threads are left
+	 * unchanged.
+	 *
+	 * @param request
+	 *            the {@link InvocationRequest} executed on a multi-module
+	 *            project
+	 * @param installation
+	 *            the {@link MavenInstallation} executing the request, or null
+	 *            if it's unknown
+	 * @return the request
+	 * @throws IOException
+	 *             if the module graph can't be read
+	 */
+	public static InvocationRequest withParallelism(
+			final InvocationRequest request,
+			final MavenInstallation installation) throws IOException {
+		if (request.getThreads() != null)
+			return request;
+		final int threads = Math.min(of(pomOf(request)).width(), CORES);
+		if (threads > 1
+				&& (installation == null || installation.supportsThreads()))
+			request.setThreads(String.valueOf(threads));
+		return request;
+	}
+
+	/**
+	 * Executes a request as independent slices of the reactor, using the
+	 * default {@link MavenInstallation}
+	 *
+	 * @param request
+	 *            the {@link InvocationRequest} executed on a multi-module
+	 *            project
+	 * @return the merged {@link StandardOutputError} of the slices
+	 * @throws MavenInvocationException
+	 *             if anything went wrong while executing Maven
+	 */
+	public static StandardOutputError executeSliced(
+			final InvocationRequest request) throws MavenInvocationException {
+		return executeSliced(request, MavenInstallations.getDefault()
+				.newInvoker());
+	}
+
+	/**
+	 * Executes a request as independent slices of the reactor. The slices are
+	 * executed concurrently without <code>-am</code>, then the aggregators
+	 * shared by the slices are built in a single invocation, so that no module
+	 * is built twice and aggregate goals (like
+	 * <code>javadoc:aggregate</code>) find the outputs of the modules.
+	 * Outputs are concatenated in that order, and the exit code is the first
+	 * non-zero one. Aggregators aren't built if a slice failed. Requests
+	 * already selecting their projects are executed as is.
+	 *
+	 * @param request
+	 *            the {@link InvocationRequest} executed on a multi-module
+	 *            project
+	 * @param invoker
+	 *            the {@link Invoker} executing the slices
+	 * @return the merged {@link StandardOutputError} of the slices
+	 * @throws MavenInvocationException
+	 *             if anything went wrong while executing Maven
+	 */
+	public static StandardOutputError executeSliced(
+			final InvocationRequest request, final Invoker invoker)
+			throws MavenInvocationException {
+		if (request.getProjects() != null && !request.getProjects().isEmpty())
+			return Maven.execute(request, invoker);
+		final MavenReactor reactor;
+		final List<List<String>> slices;
+		try {
+			reactor = of(pomOf(request));
+			slices = reactor.slices();
+		} catch (final IOException e) {
+			throw new MavenInvocationException(
+					"Unable to read the modules of the reactor", e);
+		}
+		if (slices.size() <= 1)
+			return Maven.execute(request, invoker);
+
+		final List<String> stdout = new ArrayList<String>();
+		final List<String> stderr = new ArrayList<String>();
+		final ExecutorService executor = Executors.newFixedThreadPool(Math
+				.min(slices.size(), CORES));
+		try {
+			final List<Future<StandardOutputError>> results = new ArrayList<Future<StandardOutputError>>();
+			for (final List<String> slice : slices) {
+				final InvocationRequest sliceRequest = MavenCommand
+						.copy(request);
+				sliceRequest.setProjects(slice);
+				results.add(executor.submit(new Callable<StandardOutputError>() {
+					@Override
+					public StandardOutputError call()
+							throws MavenInvocationException {
+						return Maven.execute(sliceRequest, invoker);
+					}
+				}));
+			}
+			int exitCode = 0;
+			for (final Future<StandardOutputError> result : results) {
+				final StandardOutputError slice = result.get();
+				stdout.addAll(slice.stdout);
+				stderr.addAll(slice.stderr);
+				if (exitCode == 0)
+					exitCode = slice.exitCode;
+			}
+			final List<String> aggregators = reactor.aggregators();
+			if (exitCode == 0 && !aggregators.isEmpty()) {
+				final InvocationRequest aggregatorsRequest = MavenCommand
+						.copy(request);
+				aggregatorsRequest.setProjects(aggregators);
+				final StandardOutputError result = Maven.execute(
+						aggregatorsRequest, invoker);
+				stdout.addAll(result.stdout);
+				stderr.addAll(result.stderr);
+				exitCode = result.exitCode;
+			}
+			return new StandardOutputError(stdout, stderr, exitCode);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MavenInvocationException(
+					"Interrupted while executing the slices", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof MavenInvocationException)
+				throw (MavenInvocationException) e.getCause();
+			throw new MavenInvocationException("Slice execution failed",
+					e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static File pomOf(final InvocationRequest request) {
+		if (request.getPomFile() != null)
+			return request.getPomFile();
+		return new File(request.getBaseDirectory(),
+				request.getPomFileName() != null ? request.getPomFileName()
+						: "pom.xml");
+	}
+
+	/**
+	 * @return the <code>groupId:artifactId</code> of all the modules of the
+	 *         reactor
+	 */
+	public List<String> modules() {
+		return Collections.unmodifiableList(new ArrayList<String>(modules
+				.keySet()));
+	}
+
+	/**
+	 * @return the pom.xml files of all the modules of the reactor, in the
+	 *         order of {@link #modules()}
+	 */
+	public List<File> poms() {
+		final List<File> poms = new ArrayList<File>();
+		for (final Module module : modules.values())
+			poms.add(module.pom);
+		return Collections.unmodifiableList(poms);
+	}
+
+	/**
+	 * @return the <code>groupId:artifactId</code> of the aggregators of the
+	 *         reactor, which aren't part of any slice
+	 */
+	public List<String> aggregators() {
+		final List<String> aggregators = new ArrayList<String>();
+		for (final Module module : modules.values())
+			if (module.aggregator)
+				aggregators.add(module.id);
+		return Collections.unmodifiableList(aggregators);
+	}
+}
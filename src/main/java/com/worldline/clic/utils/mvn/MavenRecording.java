@@ -0,0 +1,375 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+
+import com.google.common.base.Charsets;
+
+/**
+ * This class represents a recorded Maven invocation: the goals, properties and
+ * project selection of the request, every output line with its timestamp relative to the start
+ * of the invocation, and the exit code. Recordings are produced by
+ * {@link RecordingInvoker} and played back by {@link ReplayInvoker}.
+ *
+ * Recordings are stored in a compact gzipped binary file using the
+ * {@link #EXTENSION} extension.
+ *
+ * @version 1.0
+ */
+public class MavenRecording {
+
+	/**
+	 * Extension of the recording files
+	 */
+	public static final String EXTENSION = ".clicrec";
+
+	/**
+	 * Stream identifier of a standard output line
+	 */
+	public static final int OUTPUT = 0;
+
+	/**
+	 * Stream identifier of a standard error line
+	 */
+	public static final int ERROR = 1;
+
+	private static final int MAGIC = 0x434c5243; // CLRC
+
+	private static final int FORMAT_VERSION = 2;
+
+	/**
+	 * A single line printed by Maven during the recorded invocation
+	 */
+	public static class Line {
+		/**
+		 * {@link MavenRecording#OUTPUT} or {@link MavenRecording#ERROR}
+		 */
+		public final int stream;
+		/**
+		 * Milliseconds elapsed since the beginning of the invocation
+		 */
+		public final long offset;
+		/**
+		 * Content of the line
+		 */
+		public final String text;
+
+		public Line(final int stream, final long offset, final String text) {
+			this.stream = stream;
+			this.offset = offset;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Goals of the recorded request
+	 */
+	public final List<String> goals;
+	/**
+	 * Properties of the recorded request, sorted by key
+	 */
+	public final SortedMap<String, String> properties;
+	/**
+	 * Project, profiles and modules selected by the recorded request, see
+	 * {@link #contextOf(InvocationRequest)}; empty when the recording isn't
+	 * tied to a project
+	 */
+	public final String context;
+	/**
+	 * All the lines printed during the invocation, ordered by offset
+	 */
+	public final List<Line> lines;
+	/**
+	 * Exit code of the invocation
+	 */
+	public final int exitCode;
+	/**
+	 * Duration of the invocation in milliseconds
+	 */
+	public final long duration;
+
+	public MavenRecording(final List<String> goals,
+			final Map<String, String> properties, final List<Line> lines,
+			final int exitCode, final long duration) {
+		this(goals, properties, "", lines, exitCode, duration);
+	}
+
+	public MavenRecording(final List<String> goals,
+			final Map<String, String> properties, final String context,
+			final List<Line> lines, final int exitCode, final long duration) {
+		this.goals = Collections.unmodifiableList(new ArrayList<String>(goals));
+		this.properties = Collections
+				.unmodifiableSortedMap(new TreeMap<String, String>(properties));
+		this.context = context;
+		this.lines = Collections.unmodifiableList(new ArrayList<Line>(lines));
+		this.exitCode = exitCode;
+		this.duration = duration;
+	}
+
+	/**
+	 * @return the key identifying the recorded request, see
+	 *         {@link #keyOf(InvocationRequest)}
+	 */
+	public String key() {
+		return key(goals, properties, context);
+	}
+
+	/**
+	 * @return the key identifying the goals and properties of the recorded
+	 *         request, whatever the project it was executed on
+	 */
+	String commandKey() {
+		return key(goals, properties, "");
+	}
+
+	static String commandKeyOf(final InvocationRequest request) {
+		return key(goalsOf(request), propertiesOf(request), "");
+	}
+
+	/**
+	 * Computes a key identifying a request from its goals, properties and
+	 * project selection, allowing to match a request with a previous recording
+	 *
+	 * @param request
+	 *            the {@link InvocationRequest} to be identified
+	 * @return the key of the request
+	 */
+	public static String keyOf(final InvocationRequest request) {
+		return key(goalsOf(request), propertiesOf(request), contextOf(request));
+	}
+
+	private static String key(final List<String> goals,
+			final SortedMap<String, String> properties, final String context) {
+		final StringBuilder key = new StringBuilder();
+		for (final String goal : goals)
+			key.append(goal).append(' ');
+		for (final Map.Entry<String, String> property : properties.entrySet())
+			key.append("-D").append(property.getKey()).append('=')
+					.append(property.getValue()).append(' ');
+		return key.append(context).toString().trim();
+	}
+
+	/**
+	 * Describes the project selection of a request: the canonical path of its
+	 * POM, its profiles, its modules and how the reactor is expanded, so that
+	 * the same goals executed on different projects or modules aren't
+	 * mistaken for each other
+	 *
+	 * @param request
+	 *            the {@link InvocationRequest} to be described
+	 * @return the options selecting the projects of the request
+	 */
+	public static String contextOf(final InvocationRequest request) {
+		final StringBuilder context = new StringBuilder("-f ").append(
+				canonicalPath(pomOf(request)));
+		if (request.getProfiles() != null && !request.getProfiles().isEmpty())
+			context.append(" -P ").append(join(request.getProfiles()));
+		if (request.getProjects() != null && !request.getProjects().isEmpty())
+			context.append(" -pl ").append(join(request.getProjects()));
+		if (request.isAlsoMake())
+			context.append(" -am");
+		if (request.isAlsoMakeDependents())
+			context.append(" -amd");
+		if (!request.isRecursive())
+			context.append(" -N");
+		return context.toString();
+	}
+
+	/**
+	 * @return the POM file executed by a request, resolved against its base
+	 *         directory like
+	 *         {@link org.apache.maven.shared.invoker.DefaultInvoker} does
+	 */
+	static File pomOf(final InvocationRequest request) {
+		if (request.getPomFile() != null)
+			return request.getPomFile();
+		final File directory = request.getBaseDirectory() == null ? new File(
+				System.getProperty("user.dir")) : request.getBaseDirectory();
+		return new File(directory, request.getPomFileName() == null ? "pom.xml"
+				: request.getPomFileName());
+	}
+
+	static String canonicalPath(final File file) {
+		try {
+			return file.getCanonicalPath();
+		} catch (final IOException e) {
+			return file.getAbsolutePath();
+		}
+	}
+
+	private static String join(final List<String> values) {
+		final StringBuilder joined = new StringBuilder();
+		for (final String value : values)
+			joined.append(joined.length() == 0 ? "" : ",").append(value);
+		return joined.toString();
+	}
+
+	static List<String> goalsOf(final InvocationRequest request) {
+		return request.getGoals() == null ? Collections.<String> emptyList()
+				: request.getGoals();
+	}
+
+	static SortedMap<String, String> propertiesOf(
+			final InvocationRequest request) {
+		final SortedMap<String, String> properties = new TreeMap<String, String>();
+		final Properties source = request.getProperties();
+		if (source != null)
+			for (final String name : source.stringPropertyNames())
+				properties.put(name, source.getProperty(name));
+		return properties;
+	}
+
+	/**
+	 * Converts this recording to the {@link StandardOutputError} which would
+	 * have been returned by {@link Maven#execute(InvocationRequest)}
+	 *
+	 * @return the {@link StandardOutputError} matching with this recording
+	 */
+	public StandardOutputError toStandardOutputError() {
+		final List<String> stdout = new ArrayList<String>();
+		final List<String> stderr = new ArrayList<String>();
+		for (final Line line : lines)
+			(line.stream == ERROR ? stderr : stdout).add(line.text);
+		return new StandardOutputError(stdout, stderr, exitCode);
+	}
+
+	/**
+	 * Writes this recording in the specified file
+	 *
+	 * @param file
+	 *            the file to be written
+	 * @throws IOException
+	 *             if anything went wrong
+	 */
+	public void write(final File file) throws IOException {
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(
+						new FileOutputStream(file))));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(FORMAT_VERSION);
+			out.writeInt(exitCode);
+			out.writeLong(duration);
+			out.writeInt(goals.size());
+			for (final String goal : goals)
+				writeString(out, goal);
+			out.writeInt(properties.size());
+			for (final Map.Entry<String, String> property : properties
+					.entrySet()) {
+				writeString(out, property.getKey());
+				writeString(out, property.getValue());
+			}
+			writeString(out, context);
+			out.writeInt(lines.size());
+			long previous = 0;
+			for (final Line line : lines) {
+				out.writeByte(line.stream);
+				out.writeInt((int) (line.offset - previous));
+				writeString(out, line.text);
+				previous = line.offset;
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a recording from the specified file
+	 *
+	 * @param file
+	 *            the file written by {@link #write(File)}
+	 * @return the {@link MavenRecording}
+	 * @throws IOException
+	 *             if the file can't be read or isn't a recording
+	 */
+	public static MavenRecording read(final File file) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file))));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a Maven recording");
+			// version 1 recordings don't have any context
+			final int version = in.readByte();
+			if (version < 1 || version > FORMAT_VERSION)
+				throw new IOException(file + " is a recording of version "
+						+ version);
+			final int exitCode = in.readInt();
+			final long duration = in.readLong();
+			final int goalCount = in.readInt();
+			final List<String> goals = new ArrayList<String>(goalCount);
+			for (int i = 0; i < goalCount; i++)
+				goals.add(readString(in));
+			final int propertyCount = in.readInt();
+			final Map<String, String> properties = new TreeMap<String, String>();
+			for (int i = 0; i < propertyCount; i++)
+				properties.put(readString(in), readString(in));
+			final String context = version < 2 ? "" : readString(in);
+			final int lineCount = in.readInt();
+			final List<Line> lines = new ArrayList<Line>(lineCount);
+			long offset = 0;
+			for (int i = 0; i < lineCount; i++) {
+				final int stream = in.readByte();
+				offset += in.readInt();
+				lines.add(new Line(stream, offset, readString(in)));
+			}
+			return new MavenRecording(goals, properties, context, lines,
+					exitCode, duration);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads all the recordings available in a directory
+	 *
+	 * @param directory
+	 *            the directory containing {@link #EXTENSION} files
+	 * @return all the {@link MavenRecording} found, sorted by file name
+	 * @throws IOException
+	 *             if a recording can't be read
+	 */
+	public static List<MavenRecording> readAll(final File directory)
+			throws IOException {
+		final List<MavenRecording> recordings = new ArrayList<MavenRecording>();
+		final File[] files = directory.listFiles();
+		if (files == null)
+			return recordings;
+		Arrays.sort(files);
+		for (final File file : files)
+			if (file.getName().endsWith(EXTENSION))
+				recordings.add(read(file));
+		return recordings;
+	}
+
+	private static void writeString(final DataOutputStream out,
+			final String value) throws IOException {
+		final byte[] bytes = value.getBytes(Charsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(final DataInputStream in)
+			throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, Charsets.UTF_8);
+	}
+}
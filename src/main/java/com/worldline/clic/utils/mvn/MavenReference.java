@@ -46,4 +46,18 @@ public class MavenReference {
 	public String toString() {
 		return groupId + ":" + artifactId + ":" + version;
 	}
+
+	@Override
+	public int hashCode() {
+		return toString().hashCode();
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof MavenReference))
+			return false;
+		return toString().equals(obj.toString());
+	}
 }
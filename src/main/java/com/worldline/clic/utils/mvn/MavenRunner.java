@@ -0,0 +1,293 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Entry point of the JVMs started by {@link MavenProcessPool}. A runner loads
+ * the Maven core classes of an installation once and warms them up with an
+ * empty build, then executes the requests it receives on its standard input
+ * one after the other, streaming the outputs back on its standard output.
+ *
+ * This class only depends on the JDK, so that the runner classpath only needs
+ * this library. Maven classes are reached through its own class loaders.
+ *
+ * Maven sets the <code>-D</code> properties of a command line as system
+ * properties: they are restored after each request, so that they don't leak
+ * into the next requests of the same runner. The working directory of a
+ * request is given to Maven, which resolves the project against it, and to the
+ * <code>user.dir</code> property; the current directory of the runner can't be
+ * changed though, so that files opened with a relative path by a plugin are
+ * still resolved against the directory the runner was started from.
+ *
+ * <pre>
+ * request:  working directory, argument count, arguments
+ * response: (OUTPUT|ERROR line)* EXIT exit-code used-heap
+ * </pre>
+ *
+ * @version 1.0
+ */
+public final class MavenRunner {
+
+	private static final String UTF_8 = "UTF-8";
+
+	static final int READY = 0;
+
+	static final int OUTPUT = 1;
+
+	static final int ERROR = 2;
+
+	static final int EXIT = 3;
+
+	private final DataOutputStream channel;
+
+	private final Class<?> cliClass;
+
+	private final Object world;
+
+	private final ClassLoader realm;
+
+	private MavenRunner(final File mavenHome, final DataOutputStream channel)
+			throws Exception {
+		this.channel = channel;
+		final File conf = new File(mavenHome, "bin/m2.conf");
+		System.setProperty("maven.home", mavenHome.getAbsolutePath());
+		System.setProperty("classworlds.conf", conf.getAbsolutePath());
+
+		final List<URL> boot = new ArrayList<URL>();
+		final File[] jars = new File(mavenHome, "boot").listFiles();
+		if (jars != null)
+			for (final File jar : jars)
+				if (jar.getName().endsWith(".jar"))
+					boot.add(jar.toURI().toURL());
+		final ClassLoader bootLoader = new URLClassLoader(
+				boot.toArray(new URL[boot.size()]),
+				ClassLoader.getSystemClassLoader());
+		final Class<?> launcherClass = bootLoader
+				.loadClass("org.codehaus.plexus.classworlds.launcher.Launcher");
+		final Object launcher = launcherClass.newInstance();
+		launcherClass.getMethod("setSystemClassLoader", ClassLoader.class)
+				.invoke(launcher, bootLoader);
+		final InputStream configuration = new FileInputStream(conf);
+		try {
+			launcherClass.getMethod("configure", InputStream.class).invoke(
+					launcher, configuration);
+		} finally {
+			configuration.close();
+		}
+		cliClass = (Class<?>) launcherClass.getMethod("getMainClass").invoke(
+				launcher);
+		world = launcherClass.getMethod("getWorld").invoke(launcher);
+		realm = (ClassLoader) launcherClass.getMethod("getMainRealm").invoke(
+				launcher);
+	}
+
+	/**
+	 * Executes a single Maven command line in this JVM
+	 */
+	private int execute(final String workingDirectory, final String[] args,
+			final boolean discard) throws Exception {
+		final LineOutputStream out = new LineOutputStream(discard ? -1 : OUTPUT);
+		final LineOutputStream err = new LineOutputStream(discard ? -1 : ERROR);
+		final PrintStream stdout = new PrintStream(out, true, UTF_8);
+		final PrintStream stderr = new PrintStream(err, true, UTF_8);
+		final PrintStream previousOut = System.out;
+		final PrintStream previousErr = System.err;
+		final ClassLoader previousLoader = Thread.currentThread()
+				.getContextClassLoader();
+		final Properties previousProperties = (Properties) System
+				.getProperties().clone();
+		System.setOut(stdout);
+		System.setErr(stderr);
+		System.setProperty("user.dir", workingDirectory);
+		System.setProperty("maven.multiModuleProjectDirectory",
+				projectDirectory(new File(workingDirectory)).getAbsolutePath());
+		Thread.currentThread().setContextClassLoader(realm);
+		try {
+			final Method doMain = cliClass.getMethod("doMain", String[].class,
+					String.class, PrintStream.class, PrintStream.class);
+			return (Integer) doMain.invoke(newCli(), args, workingDirectory,
+					stdout, stderr);
+		} finally {
+			Thread.currentThread().setContextClassLoader(previousLoader);
+			System.setProperties(previousProperties);
+			System.setOut(previousOut);
+			System.setErr(previousErr);
+			stdout.flush();
+			stderr.flush();
+			out.flushLine();
+			err.flushLine();
+		}
+	}
+
+	/**
+	 * Executes an offline build of an empty project, so that the classes used
+	 * by any build are loaded and compiled before the first request
+	 */
+	private void warmUp() throws Exception {
+		final File directory = File.createTempFile("maven-runner", "");
+		directory.delete();
+		directory.mkdirs();
+		final File pom = new File(directory, "pom.xml");
+		final OutputStream out = new FileOutputStream(pom);
+		try {
+			out.write(("<project><modelVersion>4.0.0</modelVersion>"
+					+ "<groupId>warmup</groupId><artifactId>warmup</artifactId>"
+					+ "<version>1</version><packaging>pom</packaging></project>")
+					.getBytes(UTF_8));
+		} finally {
+			out.close();
+		}
+		try {
+			execute(directory.getAbsolutePath(), new String[] { "-B", "-o",
+					"validate" }, true);
+		} finally {
+			pom.delete();
+			directory.delete();
+		}
+	}
+
+	private Object newCli() throws Exception {
+		for (final Constructor<?> constructor : cliClass.getConstructors())
+			if (constructor.getParameterTypes().length == 1
+					&& constructor.getParameterTypes()[0].isInstance(world))
+				return constructor.newInstance(world);
+		return cliClass.newInstance();
+	}
+
+	/**
+	 * Looks for the project directory the same way the mvn script does: the
+	 * closest parent containing a <code>.mvn</code> directory, or the working
+	 * directory itself
+	 */
+	private static File projectDirectory(final File workingDirectory) {
+		for (File directory = workingDirectory.getAbsoluteFile(); directory != null; directory = directory
+				.getParentFile())
+			if (new File(directory, ".mvn").isDirectory())
+				return directory;
+		return workingDirectory;
+	}
+
+	/**
+	 * Sends each line written in this stream as a frame of the channel
+	 */
+	private class LineOutputStream extends OutputStream {
+
+		private final int stream;
+
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		LineOutputStream(final int stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public synchronized void write(final int b) throws IOException {
+			if (b == '\n')
+				flushLine();
+			else if (b != '\r')
+				line.write(b);
+		}
+
+		synchronized void flushLine() throws IOException {
+			if (line.size() == 0 || stream < 0) {
+				line.reset();
+				return;
+			}
+			final String text = new String(line.toByteArray(), UTF_8);
+			line.reset();
+			synchronized (channel) {
+				channel.writeByte(stream);
+				writeString(channel, text);
+			}
+		}
+	}
+
+	static void writeString(final DataOutputStream out, final String value)
+			throws IOException {
+		final byte[] bytes = value.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(final DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Starts a runner
+	 *
+	 * @param args
+	 *            the Maven home directory
+	 * @throws Exception
+	 *             if Maven can't be loaded
+	 */
+	public static void main(final String[] args) throws Exception {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(FileDescriptor.in)));
+		final DataOutputStream channel = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(
+						FileDescriptor.out)));
+		// anything printed outside of a request must not corrupt the channel
+		System.setOut(System.err);
+		final MavenRunner runner = new MavenRunner(new File(args[0]), channel);
+		try {
+			runner.warmUp();
+		} catch (final Exception e) {
+			// a failed warm up only makes the first request slower
+		}
+		synchronized (channel) {
+			channel.writeByte(READY);
+			channel.flush();
+		}
+		while (true) {
+			final String workingDirectory;
+			try {
+				workingDirectory = readString(in);
+			} catch (final EOFException e) {
+				return;
+			}
+			final String[] arguments = new String[in.readInt()];
+			for (int i = 0; i < arguments.length; i++)
+				arguments[i] = readString(in);
+			int exitCode;
+			try {
+				exitCode = runner.execute(workingDirectory, arguments, false);
+			} catch (final Exception e) {
+				exitCode = 1;
+				synchronized (channel) {
+					channel.writeByte(ERROR);
+					writeString(channel, "Maven runner failure: " + e);
+				}
+			}
+			final Runtime runtime = Runtime.getRuntime();
+			synchronized (channel) {
+				channel.writeByte(EXIT);
+				channel.writeInt(exitCode);
+				channel.writeLong(runtime.totalMemory() - runtime.freeMemory());
+				channel.flush();
+			}
+		}
+	}
+}
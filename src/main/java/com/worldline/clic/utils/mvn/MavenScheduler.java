@@ -0,0 +1,386 @@
+package com.worldline.clic.utils.mvn;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+
+/**
+ * Scheduler sharing a limited number of Maven executions between several
+ * tenants. It aims at keeping interactive invocations responsive while other
+ * tenants submit large batches.
+ *
+ * <ul>
+ * <li>{@link Priority#INTERACTIVE} jobs are always dispatched before
+ * {@link Priority#BATCH} ones</li>
+ * <li>within a priority, tenants are served using weighted fair queueing:
+ * each tenant gets a share of the executions proportional to its weight</li>
+ * <li>the number of concurrent executions is capped per tenant and per
+ * {@link MavenReference}</li>
+ * <li>jobs are rejected with a {@link RejectedExecutionException} as soon as
+ * the queues are full</li>
+ * </ul>
+ *
+ * The time spent by jobs in the queues is recorded per priority, see
+ * {@link #getQueueWait(Priority)}.
+ *
+ * @version 1.0
+ */
+public class MavenScheduler {
+
+	/**
+	 * Priority classes of the jobs
+	 */
+	public enum Priority {
+		/**
+		 * Short invocations somebody is waiting for
+		 */
+		INTERACTIVE,
+		/**
+		 * Invocations which can be delayed
+		 */
+		BATCH
+	}
+
+	/**
+	 * Scheduling state of a tenant
+	 */
+	private static class Tenant {
+		int weight;
+		int maxConcurrency;
+		final Map<Priority, Deque<Job>> queues = new EnumMap<Priority, Deque<Job>>(
+				Priority.class);
+		int queued;
+		int running;
+		double virtualTime;
+
+		Tenant(final int weight, final int maxConcurrency) {
+			this.weight = weight;
+			this.maxConcurrency = maxConcurrency;
+			for (final Priority priority : Priority.values())
+				queues.put(priority, new ArrayDeque<Job>());
+		}
+	}
+
+	/**
+	 * A submitted job, waiting in the queue of its tenant
+	 */
+	private static class Job extends FutureTask<StandardOutputError> {
+		final Tenant tenant;
+		final Priority priority;
+		final MavenReference reference;
+		final long submitted = System.nanoTime();
+
+		Job(final Tenant tenant, final Priority priority,
+				final MavenReference reference,
+				final Callable<StandardOutputError> callable) {
+			super(callable);
+			this.tenant = tenant;
+			this.priority = priority;
+			this.reference = reference;
+		}
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition available = lock.newCondition();
+
+	private final Map<String, Tenant> tenants = new HashMap<String, Tenant>();
+
+	private final Map<MavenReference, Integer> runningByReference = new HashMap<MavenReference, Integer>();
+
+	private final Map<Priority, LatencyRecorder> queueWait = new EnumMap<Priority, LatencyRecorder>(
+			Priority.class);
+
+	private final List<Thread> workers = new ArrayList<Thread>();
+
+	private final int maxQueued;
+
+	private final int maxQueuedPerTenant;
+
+	private final int maxConcurrencyPerReference;
+
+	private int queued;
+
+	private double virtualClock;
+
+	private boolean shutdown;
+
+	/**
+	 * Creates a scheduler and starts its workers
+	 *
+	 * @param concurrency
+	 *            maximum number of jobs executed at the same time
+	 * @param maxQueued
+	 *            maximum number of jobs waiting in the queues, for all the
+	 *            tenants
+	 * @param maxQueuedPerTenant
+	 *            maximum number of jobs waiting in the queues of a single
+	 *            tenant
+	 * @param maxConcurrencyPerReference
+	 *            maximum number of jobs executed at the same time on the same
+	 *            {@link MavenReference}
+	 */
+	public MavenScheduler(final int concurrency, final int maxQueued,
+			final int maxQueuedPerTenant, final int maxConcurrencyPerReference) {
+		this.maxQueued = maxQueued;
+		this.maxQueuedPerTenant = maxQueuedPerTenant;
+		this.maxConcurrencyPerReference = maxConcurrencyPerReference;
+		for (final Priority priority : Priority.values())
+			queueWait.put(priority, new LatencyRecorder());
+		for (int i = 0; i < concurrency; i++) {
+			final Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "maven-scheduler-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Configures the share of a tenant. Unconfigured tenants get a weight of
+	 * 1 and can use all the workers.
+	 *
+	 * @param tenant
+	 *            name of the tenant
+	 * @param weight
+	 *            relative share of the executions given to the tenant
+	 * @param maxConcurrency
+	 *            maximum number of jobs of the tenant executed at the same time
+	 */
+	public void configureTenant(final String tenant, final int weight,
+			final int maxConcurrency) {
+		if (weight <= 0 || maxConcurrency <= 0)
+			throw new IllegalArgumentException(
+					"Weight and concurrency should be positive");
+		lock.lock();
+		try {
+			final Tenant state = tenants.get(tenant);
+			if (state == null)
+				tenants.put(tenant, new Tenant(weight, maxConcurrency));
+			else {
+				state.weight = weight;
+				state.maxConcurrency = maxConcurrency;
+				available.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Submits a request to be executed using
+	 * {@link Maven#execute(InvocationRequest)}
+	 *
+	 * @param tenant
+	 *            name of the tenant submitting the request
+	 * @param priority
+	 *            {@link Priority} of the request
+	 * @param reference
+	 *            the {@link MavenReference} the request is executed on
+	 * @param request
+	 *            the {@link InvocationRequest} to be executed
+	 * @return the {@link Future} result of the execution
+	 * @throws RejectedExecutionException
+	 *             if the queues are full
+	 */
+	public Future<StandardOutputError> submit(final String tenant,
+			final Priority priority, final MavenReference reference,
+			final InvocationRequest request) {
+		return submit(tenant, priority, reference,
+				new Callable<StandardOutputError>() {
+					@Override
+					public StandardOutputError call() throws Exception {
+						return Maven.execute(request);
+					}
+				});
+	}
+
+	/**
+	 * Submits a job executing Maven
+	 *
+	 * @param tenant
+	 *            name of the tenant submitting the job
+	 * @param priority
+	 *            {@link Priority} of the job
+	 * @param reference
+	 *            the {@link MavenReference} the job is executed on
+	 * @param job
+	 *            the job executing Maven
+	 * @return the {@link Future} result of the job
+	 * @throws RejectedExecutionException
+	 *             if the queues are full
+	 */
+	public Future<StandardOutputError> submit(final String tenant,
+			final Priority priority, final MavenReference reference,
+			final Callable<StandardOutputError> job) {
+		lock.lock();
+		try {
+			if (shutdown)
+				throw new RejectedExecutionException("Scheduler is shut down");
+			Tenant state = tenants.get(tenant);
+			if (state == null) {
+				state = new Tenant(1, workers.size());
+				tenants.put(tenant, state);
+			}
+			if (queued >= maxQueued)
+				throw new RejectedExecutionException("Too many queued jobs ("
+						+ queued + ")");
+			if (state.queued >= maxQueuedPerTenant)
+				throw new RejectedExecutionException("Too many queued jobs for "
+						+ tenant + " (" + state.queued + ")");
+			if (state.queued == 0 && state.running == 0)
+				state.virtualTime = Math.max(state.virtualTime, virtualClock);
+			final Job queuedJob = new Job(state, priority, reference, job);
+			state.queues.get(priority).add(queuedJob);
+			state.queued++;
+			queued++;
+			available.signal();
+			return queuedJob;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void work() {
+		while (true) {
+			final Job job;
+			lock.lock();
+			try {
+				Job next;
+				while ((next = next()) == null) {
+					if (shutdown && queued == 0)
+						return;
+					available.awaitUninterruptibly();
+				}
+				job = next;
+				job.tenant.running++;
+				final Integer running = runningByReference.get(job.reference);
+				runningByReference.put(job.reference, running == null ? 1
+						: running + 1);
+			} finally {
+				lock.unlock();
+			}
+			queueWait.get(job.priority).record(
+					System.nanoTime() - job.submitted);
+			try {
+				job.run();
+			} finally {
+				// a job cancelled with Future.cancel(true) leaves the worker
+				// interrupted, which must not affect the next job
+				Thread.interrupted();
+				lock.lock();
+				try {
+					job.tenant.running--;
+					final int running = runningByReference.get(job.reference) - 1;
+					if (running == 0)
+						runningByReference.remove(job.reference);
+					else
+						runningByReference.put(job.reference, running);
+					available.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Picks the next job to be executed, the lock being held
+	 *
+	 * @return the next job, or null if no job can be executed now
+	 */
+	private Job next() {
+		for (final Priority priority : Priority.values()) {
+			Tenant elected = null;
+			Job electedJob = null;
+			for (final Tenant tenant : tenants.values()) {
+				if (tenant.running >= tenant.maxConcurrency
+						|| (elected != null && tenant.virtualTime >= elected.virtualTime))
+					continue;
+				final Job job = firstRunnable(tenant.queues.get(priority));
+				if (job != null) {
+					elected = tenant;
+					electedJob = job;
+				}
+			}
+			if (electedJob != null) {
+				elected.queues.get(priority).remove(electedJob);
+				elected.queued--;
+				queued--;
+				virtualClock = Math.max(virtualClock, elected.virtualTime);
+				elected.virtualTime += 1.0 / elected.weight;
+				return electedJob;
+			}
+		}
+		return null;
+	}
+
+	private Job firstRunnable(final Deque<Job> queue) {
+		final Iterator<Job> jobs = queue.iterator();
+		while (jobs.hasNext()) {
+			final Job job = jobs.next();
+			if (job.isCancelled()) {
+				jobs.remove();
+				job.tenant.queued--;
+				queued--;
+				continue;
+			}
+			final Integer running = runningByReference.get(job.reference);
+			if (running == null || running < maxConcurrencyPerReference)
+				return job;
+		}
+		return null;
+	}
+
+	/**
+	 * @param priority
+	 *            the {@link Priority} of the jobs
+	 * @return the {@link LatencyRecorder} of the time spent by the jobs in the
+	 *         queues before being executed
+	 */
+	public LatencyRecorder getQueueWait(final Priority priority) {
+		return queueWait.get(priority);
+	}
+
+	/**
+	 * @return the number of jobs currently waiting in the queues
+	 */
+	public int getQueued() {
+		lock.lock();
+		try {
+			return queued;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops accepting jobs. Jobs already submitted are still executed.
+	 */
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
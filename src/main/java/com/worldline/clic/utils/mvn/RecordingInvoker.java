@@ -0,0 +1,208 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.shared.invoker.DefaultInvoker;
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.Invoker;
+import org.apache.maven.shared.invoker.InvokerLogger;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.apache.maven.shared.invoker.SystemOutHandler;
+
+/**
+ * {@link Invoker} decorator recording every invocation it executes as a
+ * {@link MavenRecording} file in a specified directory. Outputs are still
+ * forwarded to the configured {@link InvocationOutputHandler}s, so that it can
+ * be used transparently in place of a {@link DefaultInvoker}.
+ *
+ * The recordings can then be played back using a {@link ReplayInvoker}.
+ *
+ * @version 1.0
+ */
+public class RecordingInvoker implements Invoker {
+
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
+	private final Invoker delegate;
+
+	private final File directory;
+
+	private InvocationOutputHandler outputHandler = new SystemOutHandler();
+
+	private InvocationOutputHandler errorHandler = new SystemOutHandler();
+
+	/**
+	 * Creates a {@link RecordingInvoker} executing requests using the default
+	 * {@link MavenInstallation}
+	 *
+	 * @param directory
+	 *            the directory where recordings should be written
+	 */
+	public RecordingInvoker(final File directory) {
+		this(MavenInstallations.getDefault().newInvoker(), directory);
+	}
+
+	/**
+	 * Creates a {@link RecordingInvoker} executing requests using the
+	 * specified {@link Invoker}
+	 *
+	 * @param delegate
+	 *            the {@link Invoker} really executing the requests
+	 * @param directory
+	 *            the directory where recordings should be written
+	 */
+	public RecordingInvoker(final Invoker delegate, final File directory) {
+		this.delegate = delegate;
+		this.directory = directory;
+	}
+
+	@Override
+	public InvocationResult execute(final InvocationRequest request)
+			throws MavenInvocationException {
+		final InvocationOutputHandler requestOutput = request
+				.getOutputHandler(null);
+		final InvocationOutputHandler requestError = request
+				.getErrorHandler(null);
+		final Recorder recorder = new Recorder();
+		request.setOutputHandler(recorder.handler(MavenRecording.OUTPUT,
+				requestOutput != null ? requestOutput : outputHandler));
+		request.setErrorHandler(recorder.handler(MavenRecording.ERROR,
+				requestError != null ? requestError : errorHandler));
+		final InvocationResult result;
+		try {
+			result = delegate.execute(request);
+		} finally {
+			request.setOutputHandler(requestOutput);
+			request.setErrorHandler(requestError);
+		}
+		final MavenRecording recording = new MavenRecording(
+				MavenRecording.goalsOf(request),
+				MavenRecording.propertiesOf(request),
+				MavenRecording.contextOf(request), recorder.lines(),
+				result.getExitCode(), recorder.elapsed());
+		try {
+			recording.write(new File(directory, String.format(
+					"%d-%06d%s", System.currentTimeMillis(),
+					SEQUENCE.incrementAndGet(), MavenRecording.EXTENSION)));
+		} catch (final IOException e) {
+			throw new MavenInvocationException(
+					"Unable to write the recording in " + directory, e);
+		}
+		return result;
+	}
+
+	/**
+	 * Collects the lines of a single invocation, from both output streams
+	 */
+	private static class Recorder {
+
+		private final long start = System.nanoTime();
+
+		private final List<MavenRecording.Line> lines = new ArrayList<MavenRecording.Line>();
+
+		long elapsed() {
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		}
+
+		synchronized void record(final int stream, final String line) {
+			lines.add(new MavenRecording.Line(stream, elapsed(), line));
+		}
+
+		synchronized List<MavenRecording.Line> lines() {
+			return new ArrayList<MavenRecording.Line>(lines);
+		}
+
+		InvocationOutputHandler handler(final int stream,
+				final InvocationOutputHandler forward) {
+			return new InvocationOutputHandler() {
+				@Override
+				public void consumeLine(final String line) {
+					record(stream, line);
+					if (forward != null)
+						forward.consumeLine(line);
+				}
+			};
+		}
+	}
+
+	@Override
+	public File getLocalRepositoryDirectory() {
+		return delegate.getLocalRepositoryDirectory();
+	}
+
+	@Override
+	public File getWorkingDirectory() {
+		return delegate.getWorkingDirectory();
+	}
+
+	@Override
+	public InvokerLogger getLogger() {
+		return delegate.getLogger();
+	}
+
+	@Override
+	public File getMavenHome() {
+		return delegate.getMavenHome();
+	}
+
+	@Override
+	public Invoker setMavenHome(final File mavenHome) {
+		delegate.setMavenHome(mavenHome);
+		return this;
+	}
+
+	@Override
+	public File getMavenExecutable() {
+		return delegate.getMavenExecutable();
+	}
+
+	@Override
+	public Invoker setMavenExecutable(final File mavenExecutable) {
+		delegate.setMavenExecutable(mavenExecutable);
+		return this;
+	}
+
+	@Override
+	public Invoker setLocalRepositoryDirectory(final File localRepository) {
+		delegate.setLocalRepositoryDirectory(localRepository);
+		return this;
+	}
+
+	@Override
+	public Invoker setLogger(final InvokerLogger logger) {
+		delegate.setLogger(logger);
+		return this;
+	}
+
+	@Override
+	public Invoker setWorkingDirectory(final File workingDirectory) {
+		delegate.setWorkingDirectory(workingDirectory);
+		return this;
+	}
+
+	@Override
+	public Invoker setInputStream(final InputStream inputStream) {
+		delegate.setInputStream(inputStream);
+		return this;
+	}
+
+	@Override
+	public Invoker setOutputHandler(final InvocationOutputHandler outputHandler) {
+		this.outputHandler = outputHandler;
+		return this;
+	}
+
+	@Override
+	public Invoker setErrorHandler(final InvocationOutputHandler errorHandler) {
+		this.errorHandler = errorHandler;
+		return this;
+	}
+}
@@ -0,0 +1,258 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.Invoker;
+import org.apache.maven.shared.invoker.InvokerLogger;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.apache.maven.shared.invoker.SystemOutLogger;
+
+/**
+ * Stub {@link Invoker} playing back {@link MavenRecording}s instead of forking
+ * Maven. It allows to exercise the code dealing with Maven executions (output
+ * handling, scheduling, caching...) in a deterministic way, without any Maven
+ * installation nor network access.
+ *
+ * A request is answered with the recording having the same goals, properties
+ * and project selection if there's one, then with a recording having the same
+ * goals and properties (recordings made on another host or in another
+ * directory), or with the next recording in a round-robin fashion otherwise. Recordings can be replayed at their original pace (
+ * {@link #REAL_TIME}), N times faster, or as fast as possible (
+ * {@link #MAX_SPEED}). The number of replays running at the same time can be
+ * limited, the same way a host can only fork a limited amount of Maven
+ * processes.
+ *
+ * A single {@link ReplayInvoker} can be shared between threads, as long as
+ * output handlers are provided on each {@link InvocationRequest} rather than
+ * on the invoker.
+ *
+ * @version 1.0
+ */
+public class ReplayInvoker implements Invoker {
+
+	/**
+	 * Speed replaying the recordings at their original pace
+	 */
+	public static final double REAL_TIME = 1;
+
+	/**
+	 * Speed replaying the recordings without any delay
+	 */
+	public static final double MAX_SPEED = 0;
+
+	private final List<MavenRecording> recordings;
+
+	private final Map<String, MavenRecording> recordingsByKey = new HashMap<String, MavenRecording>();
+
+	private final Map<String, MavenRecording> recordingsByCommand = new HashMap<String, MavenRecording>();
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final double speed;
+
+	private final Semaphore concurrency;
+
+	private InvocationOutputHandler outputHandler;
+
+	private InvocationOutputHandler errorHandler;
+
+	private InvokerLogger logger = new SystemOutLogger();
+
+	private File localRepositoryDirectory;
+
+	private File workingDirectory;
+
+	private File mavenHome;
+
+	private File mavenExecutable;
+
+	/**
+	 * Creates a {@link ReplayInvoker} from all the recordings of a directory,
+	 * replayed at their original pace without any concurrency limit
+	 *
+	 * @param directory
+	 *            the directory containing the recordings
+	 * @throws IOException
+	 *             if the recordings can't be read
+	 */
+	public ReplayInvoker(final File directory) throws IOException {
+		this(MavenRecording.readAll(directory), REAL_TIME, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a {@link ReplayInvoker}
+	 *
+	 * @param recordings
+	 *            the {@link MavenRecording}s to be replayed
+	 * @param speed
+	 *            {@link #REAL_TIME}, {@link #MAX_SPEED}, or any positive
+	 *            acceleration factor
+	 * @param concurrency
+	 *            maximum number of replays running at the same time
+	 */
+	public ReplayInvoker(final List<MavenRecording> recordings,
+			final double speed, final int concurrency) {
+		if (recordings.isEmpty())
+			throw new IllegalArgumentException("No recording to replay");
+		if (speed < 0)
+			throw new IllegalArgumentException("Invalid replay speed: "
+					+ speed);
+		this.recordings = new ArrayList<MavenRecording>(recordings);
+		for (final MavenRecording recording : recordings) {
+			recordingsByKey.put(recording.key(), recording);
+			if (!recordingsByCommand.containsKey(recording.commandKey()))
+				recordingsByCommand.put(recording.commandKey(), recording);
+		}
+		this.speed = speed;
+		this.concurrency = new Semaphore(concurrency, true);
+	}
+
+	/**
+	 * Selects the recording to be replayed for a request
+	 *
+	 * @param request
+	 *            the {@link InvocationRequest} to be answered
+	 * @return the matching {@link MavenRecording}
+	 */
+	protected MavenRecording select(final InvocationRequest request) {
+		MavenRecording recording = recordingsByKey.get(MavenRecording
+				.keyOf(request));
+		if (recording == null)
+			recording = recordingsByCommand.get(MavenRecording
+					.commandKeyOf(request));
+		if (recording != null)
+			return recording;
+		return recordings.get((next.getAndIncrement() & Integer.MAX_VALUE)
+				% recordings.size());
+	}
+
+	@Override
+	public InvocationResult execute(final InvocationRequest request)
+			throws MavenInvocationException {
+		final MavenRecording recording = select(request);
+		final InvocationOutputHandler out = request
+				.getOutputHandler(outputHandler);
+		final InvocationOutputHandler err = request
+				.getErrorHandler(errorHandler);
+		try {
+			concurrency.acquire();
+			try {
+				replay(recording, out, err);
+			} finally {
+				concurrency.release();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MavenInvocationException("Replay interrupted", e);
+		}
+		return new MavenInvocationResult(recording.exitCode);
+	}
+
+	private void replay(final MavenRecording recording,
+			final InvocationOutputHandler out,
+			final InvocationOutputHandler err) throws InterruptedException {
+		final long start = System.nanoTime();
+		for (final MavenRecording.Line line : recording.lines) {
+			pause(start, line.offset);
+			final InvocationOutputHandler handler = line.stream == MavenRecording.ERROR ? err
+					: out;
+			if (handler != null)
+				handler.consumeLine(line.text);
+		}
+		pause(start, recording.duration);
+	}
+
+	private void pause(final long start, final long offset)
+			throws InterruptedException {
+		if (speed == MAX_SPEED)
+			return;
+		final long wait = (long) (TimeUnit.MILLISECONDS.toNanos(offset) / speed)
+				- (System.nanoTime() - start);
+		if (wait > 0)
+			TimeUnit.NANOSECONDS.sleep(wait);
+	}
+
+	@Override
+	public File getLocalRepositoryDirectory() {
+		return localRepositoryDirectory;
+	}
+
+	@Override
+	public File getWorkingDirectory() {
+		return workingDirectory;
+	}
+
+	@Override
+	public InvokerLogger getLogger() {
+		return logger;
+	}
+
+	@Override
+	public File getMavenHome() {
+		return mavenHome;
+	}
+
+	@Override
+	public Invoker setMavenHome(final File mavenHome) {
+		this.mavenHome = mavenHome;
+		return this;
+	}
+
+	@Override
+	public File getMavenExecutable() {
+		return mavenExecutable;
+	}
+
+	@Override
+	public Invoker setMavenExecutable(final File mavenExecutable) {
+		this.mavenExecutable = mavenExecutable;
+		return this;
+	}
+
+	@Override
+	public Invoker setLocalRepositoryDirectory(final File localRepository) {
+		this.localRepositoryDirectory = localRepository;
+		return this;
+	}
+
+	@Override
+	public Invoker setLogger(final InvokerLogger logger) {
+		this.logger = logger;
+		return this;
+	}
+
+	@Override
+	public Invoker setWorkingDirectory(final File workingDirectory) {
+		this.workingDirectory = workingDirectory;
+		return this;
+	}
+
+	@Override
+	public Invoker setInputStream(final InputStream inputStream) {
+		return this;
+	}
+
+	@Override
+	public Invoker setOutputHandler(final InvocationOutputHandler outputHandler) {
+		this.outputHandler = outputHandler;
+		return this;
+	}
+
+	@Override
+	public Invoker setErrorHandler(final InvocationOutputHandler errorHandler) {
+		this.errorHandler = errorHandler;
+		return this;
+	}
+}
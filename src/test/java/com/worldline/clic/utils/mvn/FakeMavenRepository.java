@@ -0,0 +1,239 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * File-based stand-in of a Maven repository, containing synthetic plugins and
+ * a parent pom binding them, so that Maven can be executed offline and
+ * reproducibly by {@link MavenBenchmark}. It's meant to be used as the local
+ * repository of the invocations.
+ *
+ * Each plugin has a single <code>touch</code> goal, which doesn't need a
+ * project. It hashes data for <code>bench.work</code> iterations, then writes
+ * the result and <code>bench.message</code> in <code>bench.txt</code> in the
+ * base directory. Plugins are compiled against the
+ * <code>maven-plugin-api</code> of the installation, which requires a JDK.
+ *
+ * @version 1.0
+ */
+public class FakeMavenRepository {
+
+	/**
+	 * groupId of the synthetic artifacts
+	 */
+	public static final String GROUP_ID = "com.worldline.clic.bench";
+
+	/**
+	 * Version of the synthetic artifacts
+	 */
+	public static final String VERSION = "1.0";
+
+	/**
+	 * Goal of the synthetic plugins
+	 */
+	public static final String GOAL = "touch";
+
+	private static final String MOJO = "package bench;\n"
+			+ "import java.io.*;\n"
+			+ "import java.security.MessageDigest;\n"
+			+ "import org.apache.maven.plugin.*;\n"
+			+ "import org.apache.maven.plugin.logging.Log;\n"
+			+ "public class TouchMojo implements Mojo {\n"
+			+ "  private Log log;\n"
+			+ "  private File outputDirectory;\n"
+			+ "  private String message;\n"
+			+ "  private int work;\n"
+			+ "  public void setLog(Log log) { this.log = log; }\n"
+			+ "  public Log getLog() { return log; }\n"
+			+ "  public void execute() throws MojoExecutionException {\n"
+			+ "    try {\n"
+			+ "      MessageDigest digest = MessageDigest.getInstance(\"SHA-1\");\n"
+			+ "      byte[] data = String.valueOf(message).getBytes(\"UTF-8\");\n"
+			+ "      for (int i = 0; i < work; i++) data = digest.digest(data);\n"
+			+ "      StringBuilder hash = new StringBuilder();\n"
+			+ "      for (byte b : data) hash.append(String.format(\"%02x\", b));\n"
+			+ "      outputDirectory.mkdirs();\n"
+			+ "      Writer out = new OutputStreamWriter(new FileOutputStream(new File(outputDirectory, \"bench.txt\")), \"UTF-8\");\n"
+			+ "      try { out.write(message + \" \" + hash + \"\\n\"); } finally { out.close(); }\n"
+			+ "      log.info(\"touched \" + message + \" \" + hash);\n"
+			+ "    } catch (Exception e) {\n"
+			+ "      throw new MojoExecutionException(\"touch failed\", e);\n"
+			+ "    }\n"
+			+ "  }\n"
+			+ "}\n";
+
+	private static final String PLUGIN_XML = "<plugin><name>%2$s</name>"
+			+ "<groupId>%1$s</groupId><artifactId>%2$s</artifactId>"
+			+ "<version>%3$s</version><goalPrefix>%2$s</goalPrefix>"
+			+ "<isolatedRealm>false</isolatedRealm><inheritedByDefault>true</inheritedByDefault>"
+			+ "<mojos><mojo><goal>" + GOAL + "</goal>"
+			+ "<requiresProject>false</requiresProject><threadSafe>true</threadSafe>"
+			+ "<implementation>bench.TouchMojo</implementation><language>java</language>"
+			+ "<instantiationStrategy>per-lookup</instantiationStrategy>"
+			+ "<executionStrategy>once-per-session</executionStrategy>"
+			+ "<parameters>"
+			+ "<parameter><name>outputDirectory</name><type>java.io.File</type><required>true</required><editable>true</editable><description>where bench.txt is written</description></parameter>"
+			+ "<parameter><name>message</name><type>java.lang.String</type><required>false</required><editable>true</editable><description>written in bench.txt</description></parameter>"
+			+ "<parameter><name>work</name><type>int</type><required>false</required><editable>true</editable><description>hash iterations</description></parameter>"
+			+ "</parameters><configuration>"
+			+ "<outputDirectory implementation=\"java.io.File\" default-value=\"${basedir}\">${bench.outputDirectory}</outputDirectory>"
+			+ "<message implementation=\"java.lang.String\" default-value=\"bench\">${bench.message}</message>"
+			+ "<work implementation=\"int\" default-value=\"1000\">${bench.work}</work>"
+			+ "</configuration></mojo></mojos><dependencies/></plugin>";
+
+	private static final String POM = "<project><modelVersion>4.0.0</modelVersion>"
+			+ "<groupId>%s</groupId><artifactId>%s</artifactId><version>%s</version>"
+			+ "<packaging>%s</packaging>%s</project>";
+
+	private final File directory;
+
+	private final List<MavenReference> plugins = new ArrayList<MavenReference>();
+
+	private final MavenReference parent;
+
+	/**
+	 * Creates the repository
+	 *
+	 * @param directory
+	 *            the directory of the repository, created if needed
+	 * @param installation
+	 *            the {@link MavenInstallation} whose plugin API the plugins are
+	 *            compiled against
+	 * @param pluginCount
+	 *            number of synthetic plugins
+	 * @throws IOException
+	 *             if the plugins can't be compiled or written
+	 */
+	public FakeMavenRepository(final File directory,
+			final MavenInstallation installation, final int pluginCount)
+			throws IOException {
+		this.directory = directory;
+		final File classes = compile(installation);
+		final StringBuilder bindings = new StringBuilder(
+				"<build><plugins>");
+		for (int i = 0; i < pluginCount; i++) {
+			final MavenReference plugin = new MavenReference(GROUP_ID
+					+ ":bench-plugin-" + i + ":" + VERSION);
+			writePlugin(plugin, classes);
+			plugins.add(plugin);
+			bindings.append("<plugin><groupId>").append(plugin.groupId)
+					.append("</groupId><artifactId>")
+					.append(plugin.artifactId).append("</artifactId><version>")
+					.append(plugin.version).append("</version><executions>")
+					.append("<execution><id>bench</id><phase>validate</phase>")
+					.append("<goals><goal>").append(GOAL)
+					.append("</goal></goals></execution></executions></plugin>");
+		}
+		bindings.append("</plugins></build>");
+		parent = new MavenReference(GROUP_ID + ":bench-parent:" + VERSION);
+		write(pom(parent), String.format(POM, parent.groupId,
+				parent.artifactId, parent.version, "pom", bindings));
+	}
+
+	/**
+	 * @return the directory of the repository
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the synthetic plugins
+	 */
+	public List<MavenReference> getPlugins() {
+		return plugins;
+	}
+
+	/**
+	 * @return the parent pom binding the <code>touch</code> goal of every
+	 *         plugin to the <code>validate</code> phase
+	 */
+	public MavenReference getParent() {
+		return parent;
+	}
+
+	private void writePlugin(final MavenReference plugin, final File classes)
+			throws IOException {
+		write(pom(plugin), String.format(POM, plugin.groupId,
+				plugin.artifactId, plugin.version, "maven-plugin", ""));
+		final File jar = artifact(plugin, "jar");
+		final JarOutputStream out = new JarOutputStream(new FileOutputStream(
+				jar));
+		try {
+			out.putNextEntry(new JarEntry("META-INF/maven/plugin.xml"));
+			out.write(String.format(PLUGIN_XML, plugin.groupId,
+					plugin.artifactId, plugin.version).getBytes(Charsets.UTF_8));
+			out.closeEntry();
+			out.putNextEntry(new JarEntry("bench/TouchMojo.class"));
+			Files.copy(new File(classes, "bench/TouchMojo.class"), out);
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Compiles the mojo shared by all the plugins
+	 */
+	private File compile(final MavenInstallation installation)
+			throws IOException {
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null)
+			throw new IOException(
+					"A JDK is required to compile the synthetic plugins");
+		File api = null;
+		final File[] libraries = new File(installation.home, "lib")
+				.listFiles();
+		if (libraries != null)
+			for (final File library : libraries)
+				if (library.getName().startsWith("maven-plugin-api-"))
+					api = library;
+		if (api == null)
+			throw new IOException("No maven-plugin-api in " + installation);
+		final File sources = new File(directory, ".bench/src/bench");
+		final File classes = new File(directory, ".bench/classes");
+		sources.mkdirs();
+		classes.mkdirs();
+		final File source = new File(sources, "TouchMojo.java");
+		Files.write(MOJO, source, Charsets.UTF_8);
+		final OutputStream errors = new ByteArrayOutputStream();
+		if (compiler.run(null, null, errors, "-nowarn", "-d",
+				classes.getAbsolutePath(), "-cp", api.getAbsolutePath(),
+				source.getAbsolutePath()) != 0)
+			throw new IOException("Unable to compile the synthetic plugins: "
+					+ errors);
+		return classes;
+	}
+
+	private File pom(final MavenReference reference) {
+		return artifact(reference, "pom");
+	}
+
+	private File artifact(final MavenReference reference,
+			final String extension) {
+		final File folder = new File(directory, reference.groupId.replace('.',
+				'/') + "/" + reference.artifactId + "/" + reference.version);
+		folder.mkdirs();
+		return new File(folder, reference.artifactId + "-" + reference.version
+				+ "." + extension);
+	}
+
+	private static void write(final File file, final String content)
+			throws IOException {
+		Files.write(content, file, Charsets.UTF_8);
+	}
+}
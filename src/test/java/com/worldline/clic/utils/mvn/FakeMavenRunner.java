@@ -0,0 +1,88 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Stand-in of {@link MavenRunner} speaking the same protocol without loading
+ * Maven, so that {@link MavenProcessPool} can be exercised without any Maven
+ * installation. The goals of a request drive its behavior:
+ * <ul>
+ * <li><code>echo</code> prints the working directory and the arguments</li>
+ * <li><code>stderr</code> prints a line on the error stream</li>
+ * <li><code>fail</code> exits with 1</li>
+ * <li><code>heap</code> reports an exhausted heap</li>
+ * <li><code>crash</code> stops the runner in the middle of the request</li>
+ * </ul>
+ * A runner whose Maven home is named <code>broken</code> stops before its
+ * handshake.
+ *
+ * @version 1.0
+ */
+public final class FakeMavenRunner {
+
+	private FakeMavenRunner() {
+	}
+
+	public static void main(final String[] args) throws IOException {
+		if ("broken".equals(new File(args[0]).getName()))
+			System.exit(1);
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(FileDescriptor.in)));
+		final DataOutputStream channel = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(
+						FileDescriptor.out)));
+		channel.writeByte(MavenRunner.READY);
+		channel.flush();
+		while (true) {
+			final String workingDirectory;
+			try {
+				workingDirectory = MavenRunner.readString(in);
+			} catch (final EOFException e) {
+				return;
+			}
+			final String[] arguments = new String[in.readInt()];
+			for (int i = 0; i < arguments.length; i++)
+				arguments[i] = MavenRunner.readString(in);
+			int exitCode = 0;
+			long usedHeap = 0;
+			for (final String argument : arguments)
+				if ("echo".equals(argument)) {
+					line(channel, MavenRunner.OUTPUT, workingDirectory);
+					final StringBuilder line = new StringBuilder();
+					for (final String echoed : arguments)
+						line.append(line.length() == 0 ? "" : " ").append(
+								echoed);
+					line(channel, MavenRunner.OUTPUT, line.toString());
+				} else if ("stderr".equals(argument))
+					line(channel, MavenRunner.ERROR, "error");
+				else if ("fail".equals(argument))
+					exitCode = 1;
+				else if ("heap".equals(argument))
+					usedHeap = Long.MAX_VALUE;
+				else if ("crash".equals(argument)) {
+					line(channel, MavenRunner.OUTPUT, "crashing");
+					channel.flush();
+					System.exit(2);
+				}
+			channel.writeByte(MavenRunner.EXIT);
+			channel.writeInt(exitCode);
+			channel.writeLong(usedHeap);
+			channel.flush();
+		}
+	}
+
+	private static void line(final DataOutputStream channel,
+			final int stream, final String text) throws IOException {
+		channel.writeByte(stream);
+		MavenRunner.writeString(channel, text);
+	}
+}
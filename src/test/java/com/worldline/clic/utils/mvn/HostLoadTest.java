@@ -0,0 +1,78 @@
+package com.worldline.clic.utils.mvn;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class HostLoadTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private void write(final String path, final String content)
+			throws Exception {
+		final File file = new File(folder.getRoot(), path);
+		file.getParentFile().mkdirs();
+		Files.write(content, file, Charsets.US_ASCII);
+	}
+
+	@Test
+	public void readsTheLoadOfTheHost() throws Exception {
+		write("loadavg", "2.50 1.75 1.10 3/512 12345\n");
+		write("meminfo", "MemTotal:        8192000 kB\n"
+				+ "MemFree:          512000 kB\n"
+				+ "MemAvailable:    2048000 kB\n"
+				+ "Buffers:          128000 kB\n");
+		write("pressure/memory",
+				"some avg10=12.50 avg60=4.00 avg300=1.00 total=123456\n"
+						+ "full avg10=3.00 avg60=1.00 avg300=0.20 total=4567\n");
+		write("pressure/cpu",
+				"some avg10=0.75 avg60=0.50 avg300=0.25 total=98765\n");
+
+		final HostLoad load = HostLoad.read(folder.getRoot());
+		assertEquals(Runtime.getRuntime().availableProcessors(),
+				load.processors);
+		assertEquals(2.5, load.loadAverage, 0);
+		assertEquals(8192000L * 1024, load.totalMemory);
+		assertEquals(2048000L * 1024, load.availableMemory);
+		assertEquals(0.25, load.getAvailableMemoryRatio(), 0);
+		assertEquals(12.5, load.memoryPressure, 0);
+		assertEquals(0.75, load.cpuPressure, 0);
+	}
+
+	@Test
+	public void missingSignalsAreUnknown() throws Exception {
+		write("loadavg", "0.50 0.40 0.30 1/100 42\n");
+
+		final HostLoad load = HostLoad.read(folder.getRoot());
+		assertEquals(0.5, load.loadAverage, 0);
+		assertEquals(-1, load.totalMemory);
+		assertEquals(-1, load.availableMemory);
+		assertEquals(-1, load.getAvailableMemoryRatio(), 0);
+		assertEquals(-1, load.memoryPressure, 0);
+		assertEquals(-1, load.cpuPressure, 0);
+	}
+
+	@Test
+	public void malformedSignalsAreUnknown() throws Exception {
+		write("loadavg", "high\n");
+		write("meminfo", "MemTotal: lots\nMemAvailable: 1024 kB\n");
+		write("pressure/memory", "full avg10=3.00 avg60=1.00\n");
+		write("pressure/cpu", "some avg10=none avg60=0.50\n");
+
+		final HostLoad load = HostLoad.read(folder.getRoot());
+		assertEquals(-1, load.loadAverage, 0);
+		assertEquals(-1, load.totalMemory);
+		assertEquals(1024L * 1024, load.availableMemory);
+		assertEquals(-1, load.getAvailableMemoryRatio(), 0);
+		assertEquals(-1, load.memoryPressure, 0);
+		assertEquals(-1, load.cpuPressure, 0);
+	}
+}
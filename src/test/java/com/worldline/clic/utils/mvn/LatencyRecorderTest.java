@@ -0,0 +1,43 @@
+package com.worldline.clic.utils.mvn;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyRecorderTest {
+
+	@Test
+	public void percentilesOfAnEmptyRecorderAreZero() {
+		final LatencyRecorder recorder = new LatencyRecorder();
+		assertEquals(0, recorder.percentile(50, TimeUnit.NANOSECONDS));
+		assertEquals(0, recorder.getCount());
+	}
+
+	@Test
+	public void computesPercentilesOfTheSamples() {
+		final LatencyRecorder recorder = new LatencyRecorder();
+		for (int i = 100; i >= 1; i--)
+			recorder.record(TimeUnit.MILLISECONDS.toNanos(i));
+		assertEquals(1, recorder.percentile(0, TimeUnit.MILLISECONDS));
+		assertEquals(1, recorder.percentile(1, TimeUnit.MILLISECONDS));
+		assertEquals(50, recorder.percentile(50, TimeUnit.MILLISECONDS));
+		assertEquals(90, recorder.percentile(90, TimeUnit.MILLISECONDS));
+		assertEquals(99, recorder.percentile(99, TimeUnit.MILLISECONDS));
+		assertEquals(100, recorder.percentile(100, TimeUnit.MILLISECONDS));
+		assertEquals(100, recorder.getCount());
+		assertEquals(100, recorder.getMax(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void onlyKeepsTheLatestSamples() {
+		final LatencyRecorder recorder = new LatencyRecorder(10);
+		recorder.record(TimeUnit.SECONDS.toNanos(10));
+		for (int i = 0; i < 10; i++)
+			recorder.record(TimeUnit.MILLISECONDS.toNanos(5));
+		assertEquals(5, recorder.percentile(100, TimeUnit.MILLISECONDS));
+		assertEquals(11, recorder.getCount());
+		assertEquals(10, recorder.getMax(TimeUnit.SECONDS));
+	}
+}
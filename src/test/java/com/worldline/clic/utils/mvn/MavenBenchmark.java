@@ -0,0 +1,467 @@
+package com.worldline.clic.utils.mvn;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.Invoker;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * End-to-end throughput benchmark of the Maven invocations, executed offline
+ * against a {@link FakeMavenRepository}, so that performance changes of the
+ * execution path can be compared reproducibly on the same hardware.
+ *
+ * Invocations alternate between the two flows of the library: a plugin goal
+ * executed through {@link MavenCommand#generateCommand(MavenReference, String, Properties)}
+ * , and a project generated by {@link MavenPom#generate(MavenReference, String)}
+ * inheriting from a parent binding the plugins. They are executed with
+ * {@link Maven#execute(InvocationRequest, Invoker)} at each concurrency level,
+ * and the following figures are reported per level:
+ * <ul>
+ * <li>throughput, in invocations per minute</li>
+ * <li>latency percentiles</li>
+ * <li>CPU time of this JVM and of the Maven processes it forked</li>
+ * <li>peak resident memory of this JVM and of the processes it forked</li>
+ * <li>disk used in the temporary directory by the generated files</li>
+ * </ul>
+ * CPU and memory are read from <code>/proc</code>, and reported as unknown
+ * elsewhere.
+ *
+ * It's part of the test sources, and isn't shipped with the library. It's
+ * started from the test classpath of the project:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) com.worldline.clic.utils.mvn.MavenBenchmark --concurrency 1,2,4 --invocations 40
+ * </pre>
+ *
+ * @version 1.0
+ */
+public final class MavenBenchmark {
+
+	/**
+	 * Clock ticks per second of the CPU times in <code>/proc</code>, which is
+	 * 100 on all the usual Linux platforms
+	 */
+	private static final double CLOCK_TICKS = 100;
+
+	private static final long PAGE_SIZE = 4096;
+
+	private final Invoker invoker;
+
+	private final FakeMavenRepository repository;
+
+	private final File temporary;
+
+	private final int properties;
+
+	private final int work;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private MavenBenchmark(final Invoker invoker,
+			final FakeMavenRepository repository, final File temporary,
+			final int properties, final int work) {
+		this.invoker = invoker;
+		this.repository = repository;
+		this.temporary = temporary;
+		this.properties = properties;
+		this.work = work;
+	}
+
+	/**
+	 * Executes one invocation of one of the flows
+	 */
+	private StandardOutputError invoke() throws Exception {
+		final long index = sequence.incrementAndGet();
+		final Properties parameters = new Properties();
+		for (int i = 0; i < properties; i++)
+			parameters.put("bench.parameter." + i, "value-" + index + "-" + i);
+		parameters.put("bench.message", "invocation-" + index);
+		parameters.put("bench.work", String.valueOf(work));
+		final InvocationRequest request;
+		if (index % 2 == 0)
+			request = MavenCommand.generatePomCommand(
+					MavenPom.generate(repository.getParent(), "bench-" + index),
+					"validate", parameters);
+		else
+			request = MavenCommand.generateCommand(
+					repository.getPlugins().get(
+							(int) (index / 2 % repository.getPlugins().size())),
+					FakeMavenRepository.GOAL, parameters);
+		request.setOffline(true);
+		request.setInteractive(false);
+		request.setLocalRepositoryDirectory(repository.getDirectory());
+		return Maven.execute(request, invoker);
+	}
+
+	/**
+	 * Executes a number of invocations at a concurrency level
+	 */
+	private Level run(final int concurrency, final int invocations)
+			throws Exception {
+		final Level level = new Level(concurrency);
+		final double[] cpuBefore = cpuTimes();
+		final MemorySampler sampler = new MemorySampler();
+		sampler.start();
+		final ExecutorService executor = Executors
+				.newFixedThreadPool(concurrency);
+		final long start = System.nanoTime();
+		try {
+			final Future<?>[] futures = new Future<?>[invocations];
+			for (int i = 0; i < invocations; i++)
+				futures[i] = executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						final long invocationStart = System.nanoTime();
+						try {
+							if (invoke().exitCode != 0)
+								level.failures.incrementAndGet();
+						} catch (final Exception e) {
+							level.failures.incrementAndGet();
+						}
+						level.latency.record(System.nanoTime() - invocationStart);
+					}
+				});
+			for (final Future<?> future : futures)
+				future.get();
+		} finally {
+			executor.shutdown();
+			level.elapsed = System.nanoTime() - start;
+			sampler.interrupt();
+			sampler.join();
+		}
+		final double[] cpuAfter = cpuTimes();
+		if (cpuBefore != null && cpuAfter != null) {
+			level.cpu = cpuAfter[0] - cpuBefore[0];
+			level.childrenCpu = cpuAfter[1] - cpuBefore[1];
+		}
+		level.peakMemory = sampler.peak;
+		level.temporaryDisk = size(temporary);
+		return level;
+	}
+
+	/**
+	 * Figures of a concurrency level
+	 */
+	private static class Level {
+
+		final int concurrency;
+
+		final LatencyRecorder latency = new LatencyRecorder();
+
+		final AtomicInteger failures = new AtomicInteger();
+
+		long elapsed;
+
+		double cpu = -1;
+
+		double childrenCpu = -1;
+
+		long peakMemory = -1;
+
+		long temporaryDisk;
+
+		Level(final int concurrency) {
+			this.concurrency = concurrency;
+		}
+
+		@Override
+		public String toString() {
+			final double seconds = elapsed / 1e9;
+			return String
+					.format("%11d %7d %8d %9.1f %7d %7d %7d %7d %8s %8s %6s %9s %8d",
+							concurrency, latency.getCount(), failures.get(),
+							latency.getCount() * 60 / seconds,
+							latency.percentile(50, TimeUnit.MILLISECONDS),
+							latency.percentile(90, TimeUnit.MILLISECONDS),
+							latency.percentile(99, TimeUnit.MILLISECONDS),
+							latency.getMax(TimeUnit.MILLISECONDS),
+							cpu < 0 ? "?" : String.format("%.1f", cpu),
+							childrenCpu < 0 ? "?" : String.format("%.1f",
+									childrenCpu),
+							cpu < 0 ? "?" : String.format("%.2f",
+									(cpu + childrenCpu) / seconds),
+							peakMemory < 0 ? "?" : String.valueOf(peakMemory >> 20),
+							temporaryDisk >> 10);
+		}
+	}
+
+	private static final String HEADER = "concurrency invocs failures   inv/min"
+			+ "  p50 ms  p90 ms  p99 ms  max ms   jvm cpu forked cpu  cores  peak MiB  tmp KiB";
+
+	/**
+	 * Samples the resident memory of this JVM and of its descendants,
+	 * keeping the peak
+	 */
+	private static class MemorySampler extends Thread {
+
+		volatile long peak = -1;
+
+		MemorySampler() {
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (!isInterrupted()) {
+				final long resident = residentMemory();
+				if (resident > peak)
+					peak = resident;
+				try {
+					Thread.sleep(100);
+				} catch (final InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the CPU seconds of this JVM and of its children, running or
+	 *         terminated, or null if unknown
+	 */
+	private static double[] cpuTimes() {
+		final String[] stat = stat(new File("/proc/self/stat"));
+		final long[] descendants = descendants();
+		if (stat == null || descendants == null)
+			return null;
+		// fields after the command: utime is the 12th, then stime, cutime and
+		// cstime
+		return new double[] {
+				(Long.parseLong(stat[11]) + Long.parseLong(stat[12]))
+						/ CLOCK_TICKS,
+				(Long.parseLong(stat[13]) + Long.parseLong(stat[14]) + descendants[1])
+						/ CLOCK_TICKS };
+	}
+
+	/**
+	 * @return the resident memory of this JVM and of all its descendants, in
+	 *         bytes, or -1 if unknown
+	 */
+	private static long residentMemory() {
+		final long[] descendants = descendants();
+		return descendants == null ? -1 : descendants[0];
+	}
+
+	/**
+	 * Scans the running processes descending from this JVM, which includes
+	 * the runners of a {@link MavenProcessPool}
+	 *
+	 * @return the resident memory of this JVM and of its descendants, in
+	 *         bytes, and the CPU clock ticks of the descendants, or null if
+	 *         unknown
+	 */
+	private static long[] descendants() {
+		final File[] processes = new File("/proc").listFiles();
+		final String self;
+		try {
+			self = new File("/proc/self").getCanonicalFile().getName();
+		} catch (final IOException e) {
+			return null;
+		}
+		if (processes == null)
+			return null;
+		final Map<String, String[]> stats = new HashMap<String, String[]>();
+		for (final File process : processes)
+			if (process.getName().matches("\\d+")) {
+				final String[] stat = stat(new File(process, "stat"));
+				if (stat != null)
+					stats.put(process.getName(), stat);
+			}
+		if (!stats.containsKey(self))
+			return null;
+		final long[] totals = new long[2];
+		for (final Map.Entry<String, String[]> process : stats.entrySet())
+			// ppid is the 2nd field after the command, rss the 22nd
+			for (String pid = process.getKey(); pid != null; pid = stats
+					.containsKey(pid) ? stats.get(pid)[1] : null)
+				if (pid.equals(self)) {
+					final String[] stat = process.getValue();
+					totals[0] += Long.parseLong(stat[21]) * PAGE_SIZE;
+					if (!process.getKey().equals(self))
+						totals[1] += Long.parseLong(stat[11])
+								+ Long.parseLong(stat[12]);
+					break;
+				}
+		return totals;
+	}
+
+	/**
+	 * Reads the fields of a <code>stat</code> file following the command,
+	 * which may contain spaces
+	 */
+	private static String[] stat(final File file) {
+		try {
+			final BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(file),
+							Charsets.US_ASCII));
+			try {
+				final String line = reader.readLine();
+				return line == null ? null : line.substring(
+						line.lastIndexOf(')') + 2).split(" ");
+			} finally {
+				reader.close();
+			}
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
+	private static long size(final File file) {
+		if (file.isFile())
+			return file.length();
+		long size = 0;
+		final File[] children = file.listFiles();
+		if (children != null)
+			for (final File child : children)
+				size += size(child);
+		return size;
+	}
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null)
+			for (final File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	/**
+	 * Runs the benchmark
+	 *
+	 * @param args
+	 *            the options, see <code>--help</code>
+	 * @throws Exception
+	 *             if the benchmark can't be set up
+	 */
+	public static void main(final String[] args) throws Exception {
+		final OptionParser parser = new OptionParser();
+		final OptionSpec<Integer> concurrency = parser
+				.accepts("concurrency", "concurrency levels").withRequiredArg()
+				.ofType(Integer.class).withValuesSeparatedBy(',')
+				.defaultsTo(1, 2, 4);
+		final OptionSpec<Integer> invocations = parser
+				.accepts("invocations", "invocations per level")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(20);
+		final OptionSpec<Integer> warmUp = parser
+				.accepts("warm-up", "invocations before the first level")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(2);
+		final OptionSpec<Integer> plugins = parser
+				.accepts("plugins", "synthetic plugins in the repository")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(2);
+		final OptionSpec<Integer> properties = parser
+				.accepts("properties", "properties passed to each invocation")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(10);
+		final OptionSpec<Integer> work = parser
+				.accepts("work", "hash iterations of each plugin execution")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(10000);
+		final OptionSpec<Void> pool = parser.accepts("pool",
+				"executes the invocations in a MavenProcessPool");
+		final OptionSpec<File> mavenHome = parser
+				.accepts("maven-home", "Maven installation to benchmark")
+				.withRequiredArg().ofType(File.class);
+		final OptionSpec<Void> help = parser.accepts("help").forHelp();
+		final OptionSet options;
+		try {
+			options = parser.parse(args);
+		} catch (final OptionException e) {
+			System.err.println(e.getMessage());
+			parser.printHelpOn(System.err);
+			System.exit(2);
+			return;
+		}
+		if (options.has(help)) {
+			parser.printHelpOn(System.out);
+			return;
+		}
+
+		final MavenInstallation installation = options.has(mavenHome) ? MavenInstallations
+				.getDefault().register(options.valueOf(mavenHome))
+				: MavenInstallations.getDefault().getDefaultInstallation();
+		if (installation == null) {
+			System.err.println("No Maven installation found");
+			System.exit(1);
+			return;
+		}
+		final List<Integer> levels = options.valuesOf(concurrency);
+		final File workspace = Files.createTempDir();
+		final File temporary = new File(workspace, "tmp");
+		temporary.mkdirs();
+		// generated projects and working directories are created there
+		final String previousTemporary = System.getProperty("java.io.tmpdir");
+		System.setProperty("java.io.tmpdir", temporary.getAbsolutePath());
+		MavenProcessPool processPool = null;
+		try {
+			final FakeMavenRepository repository = new FakeMavenRepository(
+					new File(workspace, "repository"), installation,
+					options.valueOf(plugins));
+			final Invoker invoker;
+			if (options.has(pool)) {
+				final int size = levels.isEmpty() ? 1 : levels.get(levels
+						.size() - 1);
+				processPool = new MavenProcessPool(installation,
+						Arrays.asList("-Xmx256m"), size, size, 100,
+						Long.MAX_VALUE, TimeUnit.MINUTES.toMillis(10));
+				invoker = processPool.newInvoker();
+			} else
+				invoker = installation.newInvoker();
+			final MavenBenchmark benchmark = new MavenBenchmark(invoker,
+					repository, temporary, options.valueOf(properties),
+					options.valueOf(work));
+
+			System.out.println("Maven " + installation + ", Java "
+					+ System.getProperty("java.version") + ", "
+					+ Runtime.getRuntime().availableProcessors()
+					+ " processors, "
+					+ (options.has(pool) ? "pooled" : "forked")
+					+ " invocations, " + options.valueOf(properties)
+					+ " properties, " + options.valueOf(work)
+					+ " hash iterations");
+			for (int i = 0; i < options.valueOf(warmUp); i++) {
+				final StandardOutputError result = benchmark.invoke();
+				if (result.exitCode != 0) {
+					System.err.println("Warm up invocation failed:");
+					for (final String line : result.stdout)
+						System.err.println(line);
+					System.exit(1);
+					return;
+				}
+			}
+			System.out.println(HEADER);
+			for (final int level : levels) {
+				System.out.println(benchmark.run(level,
+						options.valueOf(invocations)));
+				delete(temporary);
+				temporary.mkdirs();
+			}
+		} finally {
+			if (processPool != null)
+				processPool.shutdown();
+			System.setProperty("java.io.tmpdir", previousTemporary);
+			delete(workspace);
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package com.worldline.clic.utils.mvn;
+
+import static com.worldline.clic.utils.mvn.MavenRecordingTest.recording;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MavenConcurrencyLimiterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final long MIB = 1L << 20;
+
+	/**
+	 * Simulated host on which each invocation sleeps for a latency depending
+	 * on the number of invocations running at the same time: they share the
+	 * processors, and are five times slower once the memory is exhausted.
+	 */
+	private static class Host implements HostLoad.Source {
+		final int processors;
+		final int memorySlots;
+		final long baseLatency;
+		final AtomicInteger active = new AtomicInteger();
+
+		Host(final int processors, final int memorySlots,
+				final long baseLatency) {
+			this.processors = processors;
+			this.memorySlots = memorySlots;
+			this.baseLatency = baseLatency;
+		}
+
+		@Override
+		public HostLoad sample() {
+			final int running = active.get();
+			return new HostLoad(processors, running, Math.max(0, memorySlots
+					- running)
+					* 100 * MIB, memorySlots * 100 * MIB,
+					running > memorySlots ? 40 : 0, 0);
+		}
+
+		long latency(final int running) {
+			return (long) (baseLatency
+					* Math.max(1.0, (double) running / processors) * (running > memorySlots ? 5
+						: 1));
+		}
+	}
+
+	/**
+	 * Outcome of a simulation, measured after the warm up
+	 */
+	private static class Simulation {
+		final AtomicInteger peak = new AtomicInteger();
+		final AtomicLong completed = new AtomicLong();
+	}
+
+	private static Simulation simulate(final MavenConcurrencyLimiter limiter,
+			final Host host, final int clients, final long warmUp,
+			final long duration) throws Exception {
+		final Simulation simulation = new Simulation();
+		final long start = System.currentTimeMillis();
+		final long measured = start + warmUp;
+		final long end = measured + duration;
+		final ExecutorService executor = Executors.newFixedThreadPool(clients);
+		try {
+			final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < clients; i++)
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						while (System.currentTimeMillis() < end) {
+							final MavenConcurrencyLimiter.Permit permit = limiter
+									.acquire("build");
+							final int running = host.active.incrementAndGet();
+							final boolean measuring = System
+									.currentTimeMillis() >= measured;
+							if (measuring)
+								peak(simulation.peak, running);
+							Thread.sleep(host.latency(running));
+							host.active.decrementAndGet();
+							permit.release();
+							if (measuring)
+								simulation.completed.incrementAndGet();
+						}
+						return null;
+					}
+				}));
+			for (final Future<Void> future : futures)
+				future.get(warmUp + duration + 10000, TimeUnit.MILLISECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+		return simulation;
+	}
+
+	private static void peak(final AtomicInteger peak, final int value) {
+		int current;
+		while ((current = peak.get()) < value
+				&& !peak.compareAndSet(current, value))
+			continue;
+	}
+
+	@Test
+	public void convergesWithoutOverloadingTheHost() throws Exception {
+		final Host host = new Host(4, 10, 40);
+		final MavenConcurrencyLimiter limiter = new MavenConcurrencyLimiter(1,
+				1, 32, host, 100);
+		final Simulation simulation = simulate(limiter, host, 32, 2000, 3000);
+
+		assertTrue(limiter.toString(), limiter.getLimit() >= host.processors);
+		assertTrue(limiter.toString(), limiter.getLimit() <= host.memorySlots);
+		assertTrue("peak " + simulation.peak,
+				simulation.peak.get() <= host.memorySlots);
+		// the host completes one invocation per processor and base latency
+		final double throughput = simulation.completed.get() / 3.0;
+		final double optimal = host.processors * 1000.0 / host.baseLatency;
+		assertTrue(throughput + " invocations/s",
+				throughput >= optimal * 0.7);
+	}
+
+	@Test
+	public void convergesOnLatenciesOnly() throws Exception {
+		final Host host = new Host(4, 10, 40);
+		final MavenConcurrencyLimiter limiter = new MavenConcurrencyLimiter(1,
+				1, 32, null, 100);
+		final Simulation simulation = simulate(limiter, host, 32, 2000, 3000);
+
+		assertTrue(limiter.toString(), limiter.getLimit() >= host.processors);
+		assertTrue(limiter.toString(), limiter.getLimit() <= host.memorySlots);
+		assertTrue("peak " + simulation.peak,
+				simulation.peak.get() <= host.memorySlots);
+	}
+
+	@Test
+	public void waitsForTheLimit() throws Exception {
+		final MavenConcurrencyLimiter limiter = new MavenConcurrencyLimiter(2,
+				2, 2, null, 0);
+		final MavenConcurrencyLimiter.Permit first = limiter.acquire("a");
+		limiter.acquire("a");
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<MavenConcurrencyLimiter.Permit> third = executor
+					.submit(new Callable<MavenConcurrencyLimiter.Permit>() {
+						@Override
+						public MavenConcurrencyLimiter.Permit call()
+								throws InterruptedException {
+							return limiter.acquire("a");
+						}
+					});
+			while (limiter.getWaiting() == 0)
+				Thread.sleep(1);
+			assertEquals(2, limiter.getInFlight());
+			assertFalse(third.isDone());
+			first.release();
+			third.get(10, TimeUnit.SECONDS);
+			assertEquals(2, limiter.getInFlight());
+			assertEquals(0, limiter.getWaiting());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void throttlesWhenTheMemoryIsExhausted() throws Exception {
+		final MavenConcurrencyLimiter limiter = new MavenConcurrencyLimiter(8,
+				1, 8, new HostLoad.Source() {
+					@Override
+					public HostLoad sample() {
+						return new HostLoad(4, 1, 10 * MIB, 1000 * MIB, 0, 0);
+					}
+				}, 0);
+		limiter.acquire("a").cancel();
+		assertTrue(limiter.isOverloaded());
+		assertEquals(1, limiter.getThrottles());
+		assertEquals(4, limiter.getLimit());
+		assertEquals(0, limiter.getCompleted());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void ignoresDisabledSignals() throws Exception {
+		final MavenConcurrencyLimiter limiter = new MavenConcurrencyLimiter(8,
+				1, 8, new HostLoad.Source() {
+					@Override
+					public HostLoad sample() {
+						return new HostLoad(4, 100, 10 * MIB, 1000 * MIB, 90,
+								90);
+					}
+				}, 0);
+		limiter.setOverloadThresholds(-1, -1, -1, -1);
+		limiter.acquire("a").release();
+		assertFalse(limiter.isOverloaded());
+		assertEquals(8, limiter.getLimit());
+		assertEquals(1, limiter.getCompleted());
+	}
+
+	@Test
+	public void comparesLatenciesOfTheSameProjectOnly() throws Exception {
+		final List<String> keys = new ArrayList<String>();
+		final MavenConcurrencyLimiter limiter = new MavenConcurrencyLimiter(2,
+				1, 8, null, 0) {
+			@Override
+			public Permit acquire(final String key)
+					throws InterruptedException {
+				keys.add(key);
+				return super.acquire(key);
+			}
+		};
+		final ReplayInvoker invoker = new ReplayInvoker(
+				Arrays.asList(recording("install", 0, 0)),
+				ReplayInvoker.MAX_SPEED, 1);
+		limiter.execute(request(folder.newFolder("one")), invoker);
+		limiter.execute(request(folder.newFolder("two")), invoker);
+		limiter.execute(request(new File(folder.getRoot(), "one")), invoker);
+
+		assertFalse(keys.get(0).equals(keys.get(1)));
+		assertEquals(keys.get(0), keys.get(2));
+		assertEquals(3, limiter.getCompleted());
+	}
+
+	@Test
+	public void ignoresLatenciesOfFailedInvocations() throws Exception {
+		final MavenConcurrencyLimiter limiter = new MavenConcurrencyLimiter(2,
+				1, 8, null, 0);
+		final StandardOutputError result = limiter.execute(
+				request(folder.getRoot()),
+				new ReplayInvoker(Arrays.asList(recording("install", 1, 0)),
+						ReplayInvoker.MAX_SPEED, 1));
+		assertEquals(1, result.exitCode);
+		assertEquals(0, limiter.getCompleted());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	private static InvocationRequest request(final File project) {
+		return MavenCommand.generateCommand(project,
+				Collections.singletonList("install"), new Properties());
+	}
+}
@@ -0,0 +1,140 @@
+package com.worldline.clic.utils.mvn;
+
+import static com.worldline.clic.utils.mvn.MavenRecordingTest.recording;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.Invoker;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class MavenConfigInvokerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Delegate keeping the request it executed, along with the content of
+	 * the generated file at that time
+	 */
+	private static class CapturingInvoker extends ReplayInvoker {
+		InvocationRequest request;
+		File directory;
+		List<String> config;
+
+		CapturingInvoker() {
+			super(Arrays.asList(recording("install", 0, 0)),
+					ReplayInvoker.MAX_SPEED, 1);
+		}
+
+		@Override
+		public InvocationResult execute(final InvocationRequest request)
+				throws MavenInvocationException {
+			this.request = request;
+			final String basedir = request.getShellEnvironments().get(
+					"MAVEN_BASEDIR");
+			if (basedir != null) {
+				directory = new File(basedir);
+				try {
+					config = Files.readLines(new File(directory,
+							".mvn/maven.config"), Charsets.UTF_8);
+				} catch (final Exception e) {
+					throw new MavenInvocationException("No config", e);
+				}
+			}
+			return super.execute(request);
+		}
+	}
+
+	private final CapturingInvoker delegate = new CapturingInvoker();
+
+	private static MavenConfigInvoker invoker(final Invoker delegate,
+			final String version) {
+		return new MavenConfigInvoker(delegate, new MavenInstallation(
+				new File("home"), new File("home/bin/mvn"), version, null,
+				null, 0), 0);
+	}
+
+	private InvocationRequest request(final File directory) {
+		final Properties properties = new Properties();
+		properties.put("simple", "value");
+		properties.put("spaced", "a b");
+		properties.put("multiline", "a\nb");
+		return MavenCommand.generateCommand(directory,
+				Collections.singletonList("install"), properties);
+	}
+
+	@Test
+	public void writesTheFileOutsideOfTheProject() throws Exception {
+		final File project = folder.newFolder("project");
+		final InvocationRequest request = request(project);
+		invoker(delegate, "3.9.0").execute(request);
+
+		assertNotNull(delegate.directory);
+		assertFalse(new File(project, ".mvn").exists());
+		assertFalse(delegate.directory.getCanonicalPath().startsWith(
+				project.getCanonicalPath()));
+		assertEquals(
+				Arrays.asList("-Dsimple=value", "-Dspaced=a b"),
+				sorted(delegate.config));
+		assertEquals(1, delegate.request.getProperties().size());
+		assertEquals("a\nb",
+				delegate.request.getProperties().get("multiline"));
+		assertFalse(delegate.directory.exists());
+		assertEquals(3, request.getProperties().size());
+		assertNull(request.getShellEnvironments().get("MAVEN_BASEDIR"));
+	}
+
+	@Test
+	public void keepsWhitespacesOnTheCommandLineBefore39() throws Exception {
+		invoker(delegate, "3.3.1").execute(request(folder.newFolder("project")));
+		assertEquals(Arrays.asList("-Dsimple=value"), delegate.config);
+		assertEquals(2, delegate.request.getProperties().size());
+	}
+
+	@Test
+	public void leavesProjectsWithTheirOwnDirectoryUnchanged()
+			throws Exception {
+		final File project = folder.newFolder("project");
+		new File(project, ".mvn").mkdir();
+		final InvocationRequest request = request(project);
+		invoker(delegate, "3.9.0").execute(request);
+		assertSame(request, delegate.request);
+		assertNull(delegate.directory);
+	}
+
+	@Test
+	public void leavesShortCommandLinesUnchanged() throws Exception {
+		final InvocationRequest request = request(folder.newFolder("project"));
+		new MavenConfigInvoker(delegate, new MavenInstallation(
+				new File("home"), new File("home/bin/mvn"), "3.9.0", null,
+				null, 0)).execute(request);
+		assertSame(request, delegate.request);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInstallationsWithoutMavenConfig() {
+		invoker(delegate, "3.2.5");
+	}
+
+	private static List<String> sorted(final List<String> lines) {
+		Collections.sort(lines);
+		return lines;
+	}
+}
@@ -0,0 +1,165 @@
+package com.worldline.clic.utils.mvn;
+
+import static com.worldline.clic.utils.mvn.MavenRecordingTest.recording;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class MavenIncrementalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicInteger executions = new AtomicInteger();
+
+	private final ReplayInvoker invoker = new ReplayInvoker(
+			Arrays.asList(recording("install", 0, 0, "built")),
+			ReplayInvoker.MAX_SPEED, 1) {
+		@Override
+		public InvocationResult execute(final InvocationRequest request)
+				throws MavenInvocationException {
+			executions.incrementAndGet();
+			return super.execute(request);
+		}
+	};
+
+	private MavenIncremental incremental;
+
+	@Before
+	public void createIncremental() {
+		incremental = new MavenIncremental(new File(folder.getRoot(), "state"));
+	}
+
+	@After
+	public void shutdownIncremental() {
+		incremental.shutdown();
+	}
+
+	private File project(final String name) throws Exception {
+		final File directory = folder.newFolder(name);
+		Files.write("<project/>", new File(directory, "pom.xml"),
+				Charsets.UTF_8);
+		return directory;
+	}
+
+	private static InvocationRequest request(final File directory) {
+		return MavenCommand.generateCommand(directory,
+				Collections.singletonList("install"), new Properties());
+	}
+
+	@Test
+	public void reusesTheOutcomeOfAnUnchangedRequest() throws Exception {
+		final File project = project("a");
+		assertEquals(Arrays.asList("built"),
+				incremental.execute(request(project), invoker).stdout);
+		assertEquals(Arrays.asList("built"),
+				incremental.execute(request(project), invoker).stdout);
+		assertEquals(1, executions.get());
+	}
+
+	@Test
+	public void reexecutesWhenAnInputChanges() throws Exception {
+		final File project = project("a");
+		incremental.execute(request(project), invoker);
+		Files.write("<project><!-- changed --></project>", new File(project,
+				"pom.xml"), Charsets.UTF_8);
+		incremental.execute(request(project), invoker);
+		assertEquals(2, executions.get());
+	}
+
+	@Test
+	public void distinguishesIdenticalProjects() throws Exception {
+		final File first = project("a");
+		final File second = project("b");
+		assertFalse(incremental.fingerprint(request(first)).equals(
+				incremental.fingerprint(request(second))));
+		incremental.execute(request(first), invoker);
+		incremental.execute(request(second), invoker);
+		assertEquals(2, executions.get());
+	}
+
+	@Test
+	public void checksTheInputsOfEveryModule() throws Exception {
+		final File project = folder.newFolder("multi");
+		Files.write("<project><groupId>g</groupId><artifactId>root</artifactId>"
+				+ "<modules><module>../core</module></modules></project>",
+				new File(project, "pom.xml"), Charsets.UTF_8);
+		final File core = folder.newFolder("core");
+		Files.write("<project><groupId>g</groupId><artifactId>core</artifactId>"
+				+ "</project>", new File(core, "pom.xml"), Charsets.UTF_8);
+		final File source = new File(core, "src/main/java/A.java");
+		source.getParentFile().mkdirs();
+		Files.write("class A {}", source, Charsets.UTF_8);
+
+		final String fingerprint = incremental.fingerprint(request(project));
+		Files.write("class A { int a; }", source, Charsets.UTF_8);
+		assertFalse(fingerprint.equals(incremental
+				.fingerprint(request(project))));
+	}
+
+	@Test
+	public void dependsOnTheRepositoryOptions() throws Exception {
+		final File project = project("a");
+		final String fingerprint = incremental.fingerprint(request(project));
+		final List<InvocationRequest> requests = new ArrayList<InvocationRequest>();
+		requests.add(request(project).setOffline(true));
+		requests.add(request(project).setThreads("4"));
+		requests.add(request(project).setUserSettingsFile(
+				folder.newFile("settings.xml")));
+		requests.add(request(project).setGlobalSettingsFile(
+				folder.newFile("global.xml")));
+		requests.add(request(project).setLocalRepositoryDirectory(
+				folder.newFolder("repository")));
+		requests.add(request(project).setProfiles(Arrays.asList("release")));
+		requests.add(request(project).setProjects(Arrays.asList("g:a")));
+		requests.add(request(project).setAlsoMakeDependents(true));
+		final Set<String> fingerprints = new HashSet<String>();
+		for (final InvocationRequest request : requests)
+			fingerprints.add(incremental.fingerprint(request));
+		assertFalse(fingerprints.contains(fingerprint));
+		assertEquals(requests.size(), fingerprints.size());
+	}
+
+	@Test
+	public void hashesInputsInDaemonThreads() throws Exception {
+		incremental.fingerprint(request(project("a")));
+		for (final Thread thread : Thread.getAllStackTraces().keySet())
+			if (thread.getName().equals("maven-incremental-hasher"))
+				assertTrue(thread.isDaemon());
+	}
+
+	@Test
+	public void reexecutesWhenAnOutputIsDeleted() throws Exception {
+		final File project = project("a");
+		final File target = new File(project, "target");
+		target.mkdir();
+		incremental.execute(request(project), invoker);
+		incremental.execute(request(project), invoker);
+		assertEquals(1, executions.get());
+		target.delete();
+		incremental.execute(request(project), invoker);
+		assertEquals(2, executions.get());
+	}
+}
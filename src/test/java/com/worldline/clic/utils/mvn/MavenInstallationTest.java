@@ -0,0 +1,76 @@
+package com.worldline.clic.utils.mvn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MavenInstallationTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static MavenInstallation installation(final String version) {
+		return new MavenInstallation(new File("home"), new File("home/bin/mvn"),
+				version, null, null, 0);
+	}
+
+	@Test
+	public void comparesNumericComponents() {
+		assertEquals(0, MavenInstallation.compareVersions("3.3.1", "3.3.1"));
+		assertTrue(MavenInstallation.compareVersions("3.10.0", "3.9.0") > 0);
+		assertTrue(MavenInstallation.compareVersions("3.0.5", "3.3.1") < 0);
+		assertTrue(MavenInstallation.compareVersions("4", "3.9.9") > 0);
+	}
+
+	@Test
+	public void missingComponentsAreZero() {
+		assertEquals(0, MavenInstallation.compareVersions("3.0", "3.0.0"));
+		assertTrue(MavenInstallation.compareVersions("3.0", "3.0.1") < 0);
+	}
+
+	@Test
+	public void ignoresQualifiers() {
+		assertEquals(0,
+				MavenInstallation.compareVersions("3.9.0-SNAPSHOT", "3.9.0"));
+		assertEquals(0,
+				MavenInstallation.compareVersions("4.0.0-beta-1", "4.0.0"));
+	}
+
+	@Test
+	public void capabilitiesDependOnTheVersion() {
+		assertFalse(installation("2.2.1").supportsThreads());
+		assertTrue(installation("3.0.5").supportsThreads());
+		assertFalse(installation("3.2.5").supportsMavenConfig());
+		assertTrue(installation("3.3.1").supportsMavenConfig());
+		assertFalse(installation("3.8.8").supportsMavenConfigLines());
+		assertTrue(installation("3.9.0").supportsMavenConfigLines());
+	}
+
+	@Test
+	public void resolvesLinkedExecutablesOfThePath() throws Exception {
+		Assume.assumeFalse(File.separatorChar == '\\');
+		final File home = folder.newFolder("apache-maven");
+		final File bin = new File(home, "bin");
+		bin.mkdir();
+		final File executable = new File(bin, "mvn");
+		executable.createNewFile();
+		final File path = folder.newFolder("usr", "bin");
+		Files.createSymbolicLink(new File(path, "mvn").toPath(),
+				executable.toPath());
+
+		assertEquals(home.getCanonicalPath(),
+				MavenInstallations.homeOfPathEntry(path));
+		assertEquals(home.getCanonicalPath(),
+				MavenInstallations.homeOfPathEntry(bin));
+		assertNull(MavenInstallations.homeOfPathEntry(home));
+	}
+}
@@ -0,0 +1,119 @@
+package com.worldline.clic.utils.mvn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+
+public class MavenPluginDescriptorsTest {
+
+	private static final MavenReference PLUGIN = new MavenReference(
+			"org.example:example-maven-plugin:1.0");
+
+	private static final String DESCRIPTOR = "<plugin><mojos>"
+			+ "<mojo><goal>list</goal>"
+			+ "<parameters><parameter><name>sort</name></parameter>"
+			+ "<parameter><name>skipTests</name></parameter>"
+			+ "<parameter><name>outputDirectory</name></parameter></parameters>"
+			+ "<configuration><sort>${sort}</sort>"
+			+ "<skipTests>${skipTests}</skipTests>"
+			+ "<outputDirectory>${example.outputDirectory}</outputDirectory>"
+			+ "</configuration></mojo>" + "</mojos></plugin>";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MavenPluginDescriptors descriptors;
+
+	@Before
+	public void installPlugin() throws Exception {
+		final File repository = folder.newFolder("repository");
+		final File directory = new File(repository,
+				"org/example/example-maven-plugin/1.0");
+		directory.mkdirs();
+		final ZipOutputStream jar = new ZipOutputStream(new FileOutputStream(
+				new File(directory, "example-maven-plugin-1.0.jar")));
+		try {
+			jar.putNextEntry(new ZipEntry("META-INF/maven/plugin.xml"));
+			jar.write(DESCRIPTOR.getBytes(Charsets.UTF_8));
+			jar.closeEntry();
+		} finally {
+			jar.close();
+		}
+		descriptors = new MavenPluginDescriptors(repository, new File(
+				folder.getRoot(), "index/plugin-descriptors.idx"));
+	}
+
+	private List<String> validate(final String... properties)
+			throws MavenInvocationException {
+		final Properties values = new Properties();
+		for (final String property : properties)
+			values.setProperty(property, "value");
+		return descriptors.validate(PLUGIN, "list", values);
+	}
+
+	@Test
+	public void computesEditDistances() {
+		assertEquals(0, MavenPluginDescriptors.distance("skip", "skip"));
+		assertEquals(1, MavenPluginDescriptors.distance("port", "sort"));
+		assertEquals(1, MavenPluginDescriptors.distance("skipTest", "skipTests"));
+		assertEquals(2, MavenPluginDescriptors.distance("uri", "u"));
+		assertEquals(3, MavenPluginDescriptors.distance("", "abc"));
+		assertEquals(3, MavenPluginDescriptors.distance("kitten", "sitting"));
+	}
+
+	@Test
+	public void rejectsUnknownGoals() throws Exception {
+		try {
+			descriptors.validate(PLUGIN, "lsit", new Properties());
+		} catch (final MavenInvocationException e) {
+			assertTrue(e.getMessage().contains("[list]"));
+			return;
+		}
+		throw new AssertionError("Unknown goal accepted");
+	}
+
+	@Test
+	public void acceptsShortUnrelatedParameters() throws Exception {
+		assertTrue(validate("port", "host", "uri", "sort").isEmpty());
+	}
+
+	@Test
+	public void warnsAboutLikelyMisspellings() throws Exception {
+		assertEquals(1, validate("skipTest").size());
+		assertEquals(1, validate("SKIPTESTS").size());
+		assertEquals(1, validate("example.outputDirectroy").size());
+	}
+
+	@Test
+	public void ignoresPluginsMissingFromTheRepository() throws Exception {
+		assertTrue(descriptors.validate(
+				new MavenReference("org.example:missing:1.0"), "any",
+				new Properties()).isEmpty());
+	}
+
+	@Test
+	public void reusesTheIndex() throws Exception {
+		validate();
+		final MavenPluginDescriptors reloaded = new MavenPluginDescriptors(
+				new File(folder.getRoot(), "repository"), new File(
+						folder.getRoot(), "index/plugin-descriptors.idx"));
+		assertEquals(descriptors.get(PLUGIN).properties,
+				reloaded.get(PLUGIN).properties);
+		assertFalse(reloaded.get(PLUGIN).goals().isEmpty());
+	}
+}
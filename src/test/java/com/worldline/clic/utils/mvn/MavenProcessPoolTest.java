@@ -0,0 +1,202 @@
+package com.worldline.clic.utils.mvn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.Invoker;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class MavenProcessPoolTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<MavenProcessPool> pools = new ArrayList<MavenProcessPool>();
+
+	@After
+	public void shutdownPools() {
+		for (final MavenProcessPool pool : pools)
+			pool.shutdown();
+	}
+
+	private MavenProcessPool pool(final String home, final int maxSize,
+			final int maxInvocations, final long idleTimeout) throws Exception {
+		final File directory = new File(folder.getRoot(), home);
+		directory.mkdirs();
+		final MavenProcessPool pool = new MavenProcessPool(
+				new MavenInstallation(directory, new File(directory, "bin/mvn"),
+						"3.9.0", null, null, 0), FakeMavenRunner.class,
+				Collections.<String> emptyList(), 0, maxSize, maxInvocations,
+				1L << 30, idleTimeout);
+		pools.add(pool);
+		return pool;
+	}
+
+	private MavenProcessPool pool() throws Exception {
+		return pool("maven", 1, 100, 60000);
+	}
+
+	private InvocationRequest request(final String... goals) throws Exception {
+		final File project = new File(folder.getRoot(), "project");
+		project.mkdirs();
+		final Properties properties = new Properties();
+		properties.put("spaced", "a b");
+		return MavenCommand.generateCommand(project, Arrays.asList(goals),
+				properties);
+	}
+
+	@Test
+	public void streamsTheOutputsOfTheRunner() throws Exception {
+		final StandardOutputError result = Maven.execute(
+				request("echo", "stderr", "fail"), pool().newInvoker());
+		assertEquals(1, result.exitCode);
+		assertEquals(new File(folder.getRoot(), "project").getAbsolutePath(),
+				result.stdout.get(0));
+		assertTrue(result.stdout.get(1),
+				result.stdout.get(1).endsWith("-D spaced=a b echo stderr fail"));
+		assertEquals(Arrays.asList("error"), result.stderr);
+	}
+
+	@Test
+	public void givesAnAbsolutePomToTheRunner() throws Exception {
+		final InvocationRequest request = request("echo");
+		final File pom = new File(request.getBaseDirectory(), "pom.xml");
+		Files.write("<project/>", pom, Charsets.UTF_8);
+		final StandardOutputError result = Maven.execute(request, pool()
+				.newInvoker());
+		assertTrue(result.stdout.get(1),
+				result.stdout.get(1).startsWith("-f " + pom.getAbsolutePath()));
+	}
+
+	@Test
+	public void recyclesRunnersAfterTheirInvocations() throws Exception {
+		final MavenProcessPool pool = pool("maven", 1, 2, 60000);
+		final Invoker invoker = pool.newInvoker();
+		for (int i = 0; i < 3; i++)
+			assertEquals(0, Maven.execute(request("install"), invoker).exitCode);
+		assertEquals(2, pool.getSpawned());
+		assertEquals(1, pool.getRecycled());
+	}
+
+	@Test
+	public void recyclesRunnersWhoseHeapIsFull() throws Exception {
+		final MavenProcessPool pool = pool();
+		Maven.execute(request("heap"), pool.newInvoker());
+		assertEquals(1, pool.getRecycled());
+		assertEquals(0, pool.getIdle());
+	}
+
+	@Test
+	public void replacesCrashedRunners() throws Exception {
+		final MavenProcessPool pool = pool();
+		final Invoker invoker = pool.newInvoker();
+		try {
+			Maven.execute(request("crash"), invoker);
+			throw new AssertionError("Crash not reported");
+		} catch (final MavenInvocationException e) {
+			// expected
+		}
+		assertEquals(1, pool.getRecycled());
+		assertEquals(0, pool.getSize());
+		assertEquals(0, Maven.execute(request("install"), invoker).exitCode);
+		assertEquals(2, pool.getSpawned());
+	}
+
+	@Test(expected = MavenInvocationException.class)
+	public void reportsRunnersFailingToStart() throws Exception {
+		Maven.execute(request("install"), pool("broken", 1, 100, 60000)
+				.newInvoker());
+	}
+
+	@Test
+	public void stopsRunnersRemainingIdle() throws Exception {
+		final MavenProcessPool pool = pool("maven", 1, 100, 100);
+		Maven.execute(request("install"), pool.newInvoker());
+		final long end = System.currentTimeMillis() + 10000;
+		while (pool.getSize() > 0 && System.currentTimeMillis() < end)
+			Thread.sleep(10);
+		assertEquals(0, pool.getSize());
+	}
+
+	@Test
+	public void forksRequestsWithTheirOwnEnvironment() throws Exception {
+		Assume.assumeFalse(File.separatorChar == '\\');
+		final MavenProcessPool pool = pool();
+		final File mvn = new File(folder.getRoot(), "maven/bin/mvn");
+		mvn.getParentFile().mkdirs();
+		Files.write("#!/bin/sh\necho forked $MAVEN_OPTS\n", mvn,
+				Charsets.UTF_8);
+		mvn.setExecutable(true);
+		final InvocationRequest request = request("echo");
+		request.setMavenOpts("-Xmx64m");
+
+		final StandardOutputError result = Maven.execute(request,
+				pool.newInvoker());
+		assertEquals(Arrays.asList("forked -Xmx64m"), result.stdout);
+		assertEquals(1, pool.getForked());
+		assertEquals(0, pool.getSpawned());
+	}
+
+	@Test
+	public void acceptsOnlyTheInstallationOfThePool() throws Exception {
+		final Invoker invoker = pool().newInvoker();
+		invoker.setMavenHome(new File(folder.getRoot(), "maven/../maven"));
+		invoker.setMavenExecutable(new File(folder.getRoot(), "maven/bin/mvn"));
+		try {
+			invoker.setMavenHome(new File(folder.getRoot(), "other"));
+			throw new AssertionError("Other installation accepted");
+		} catch (final IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("other"));
+		}
+	}
+
+	@Test
+	public void doesNotLeakPropertiesBetweenRequests() throws Exception {
+		final MavenInstallation installation = MavenInstallations.getDefault()
+				.getDefaultInstallation();
+		Assume.assumeTrue(installation != null);
+		final MavenProcessPool pool = new MavenProcessPool(installation,
+				Collections.<String> emptyList(), 0, 1, 100, 1L << 30, 60000);
+		pools.add(pool);
+		final File project = folder.newFolder("leak");
+		// the profile activated by the property breaks the build
+		Files.write("<project><modelVersion>4.0.0</modelVersion>"
+				+ "<groupId>g</groupId><artifactId>leak</artifactId>"
+				+ "<version>1</version><packaging>pom</packaging>"
+				+ "<profiles><profile><id>leak</id><activation><property>"
+				+ "<name>clic.leak</name></property></activation>"
+				+ "<modules><module>missing</module></modules>"
+				+ "</profile></profiles></project>", new File(project,
+				"pom.xml"), Charsets.UTF_8);
+		final Properties properties = new Properties();
+		properties.put("clic.leak", "true");
+		final InvocationRequest leaking = MavenCommand.generateCommand(
+				project, Arrays.asList("validate"), properties);
+		leaking.setOffline(true);
+		final InvocationRequest clean = MavenCommand.generateCommand(project,
+				Arrays.asList("validate"), new Properties());
+		clean.setOffline(true);
+
+		final Invoker invoker = pool.newInvoker();
+		assertEquals(0, Maven.execute(clean, invoker).exitCode);
+		assertTrue(Maven.execute(leaking, invoker).exitCode != 0);
+		assertEquals(0, Maven.execute(clean, invoker).exitCode);
+		assertEquals(1, pool.getSpawned());
+	}
+}
@@ -0,0 +1,225 @@
+package com.worldline.clic.utils.mvn;
+
+import static com.worldline.clic.utils.mvn.MavenRecordingTest.recording;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class MavenReactorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static void pom(final File directory, final String artifactId,
+			final String parent, final List<String> modules,
+			final String... dependencies) throws Exception {
+		final StringBuilder pom = new StringBuilder("<project>");
+		if (parent != null)
+			pom.append("<parent><groupId>g</groupId><artifactId>")
+					.append(parent).append("</artifactId></parent>");
+		else
+			pom.append("<groupId>g</groupId>");
+		pom.append("<artifactId>").append(artifactId).append("</artifactId>");
+		if (modules != null) {
+			pom.append("<modules>");
+			for (final String module : modules)
+				pom.append("<module>").append(module).append("</module>");
+			pom.append("</modules>");
+		}
+		pom.append("<dependencies>");
+		for (final String dependency : dependencies)
+			pom.append("<dependency><groupId>${project.groupId}</groupId>")
+					.append("<artifactId>").append(dependency)
+					.append("</artifactId></dependency>");
+		pom.append("</dependencies></project>");
+		directory.mkdirs();
+		Files.write(pom, new File(directory, "pom.xml"), Charsets.UTF_8);
+	}
+
+	/**
+	 * Creates a nested project: core and api depend on each other, web is
+	 * independent
+	 */
+	private File nested() throws Exception {
+		final File root = folder.newFolder("nested");
+		pom(root, "root", null, Arrays.asList("core", "api", "web"));
+		pom(new File(root, "core"), "core", "root", null);
+		pom(new File(root, "api"), "api", "root", null, "core");
+		pom(new File(root, "web"), "web", "root", null);
+		return new File(root, "pom.xml");
+	}
+
+	/**
+	 * Creates a flat project, whose modules are siblings of the aggregator
+	 */
+	private File flat() throws Exception {
+		final File root = folder.newFolder("flat");
+		pom(new File(root, "parent"), "parent", null,
+				Arrays.asList("../one", "../two"));
+		pom(new File(root, "one"), "one", "parent", null);
+		pom(new File(root, "two"), "two", "parent", null);
+		return new File(root, "parent/pom.xml");
+	}
+
+	@Test
+	public void slicesIndependentModules() throws Exception {
+		final MavenReactor reactor = MavenReactor.of(nested());
+		assertEquals(Arrays.asList("g:root", "g:core", "g:api", "g:web"),
+				reactor.modules());
+		assertEquals(Arrays.asList("g:root"), reactor.aggregators());
+		assertEquals(
+				Arrays.asList(Arrays.asList("g:core", "g:api"),
+						Arrays.asList("g:web")), reactor.slices());
+	}
+
+	@Test
+	public void computesTheWidthOfTheGraph() throws Exception {
+		assertEquals(2, MavenReactor.of(nested()).width());
+		assertEquals(2, MavenReactor.of(flat()).width());
+	}
+
+	@Test
+	public void selectsModulesOutsideOfTheRootDirectory() throws Exception {
+		final MavenReactor reactor = MavenReactor.of(flat());
+		assertEquals(Arrays.asList("g:parent", "g:one", "g:two"),
+				reactor.modules());
+		assertEquals(
+				Arrays.asList(Arrays.asList("g:one"), Arrays.asList("g:two")),
+				reactor.slices());
+	}
+
+	/**
+	 * Creates a nested project whose api module is linked to core by the XML
+	 * fragment of its pom, and web is independent
+	 */
+	private File linked(final String name, final String link) throws Exception {
+		final File root = folder.newFolder(name);
+		pom(root, "root", null, Arrays.asList("core", "api", "web"));
+		pom(new File(root, "core"), "core", "root", null);
+		pom(new File(root, "web"), "web", "root", null);
+		final File api = new File(root, "api");
+		api.mkdirs();
+		Files.write("<project><parent><groupId>g</groupId>"
+				+ "<artifactId>root</artifactId></parent>"
+				+ "<artifactId>api</artifactId>" + link + "</project>",
+				new File(api, "pom.xml"), Charsets.UTF_8);
+		return new File(root, "pom.xml");
+	}
+
+	@Test
+	public void linksModulesByTheirPluginsAndImports() throws Exception {
+		final List<List<String>> expected = Arrays.asList(
+				Arrays.asList("g:core", "g:api"), Arrays.asList("g:web"));
+		assertEquals(expected, MavenReactor.of(
+				linked("plugin", "<build><plugins><plugin><groupId>g</groupId>"
+						+ "<artifactId>core</artifactId></plugin></plugins>"
+						+ "</build>")).slices());
+		assertEquals(expected, MavenReactor.of(
+				linked("managed", "<build><pluginManagement><plugins><plugin>"
+						+ "<artifactId>maven-x-plugin</artifactId>"
+						+ "<dependencies><dependency><groupId>g</groupId>"
+						+ "<artifactId>core</artifactId></dependency>"
+						+ "</dependencies></plugin></plugins>"
+						+ "</pluginManagement></build>")).slices());
+		assertEquals(expected, MavenReactor.of(
+				linked("bom", "<properties><bom.group>g</bom.group>"
+						+ "</properties><dependencyManagement><dependencies>"
+						+ "<dependency><groupId>${bom.group}</groupId>"
+						+ "<artifactId>core</artifactId><scope>import</scope>"
+						+ "</dependency></dependencies></dependencyManagement>"))
+				.slices());
+		assertEquals(expected, MavenReactor.of(
+				linked("profile", "<profiles><profile><dependencies>"
+						+ "<dependency><groupId>g</groupId>"
+						+ "<artifactId>core</artifactId></dependency>"
+						+ "</dependencies></profile></profiles>")).slices());
+	}
+
+	@Test
+	public void doesNotSliceUnknownLinks() throws Exception {
+		final MavenReactor unresolved = MavenReactor.of(linked("unresolved",
+				"<dependencies><dependency><groupId>${unknown}</groupId>"
+						+ "<artifactId>core</artifactId></dependency>"
+						+ "</dependencies>"));
+		assertFalse(unresolved.isSliceable());
+		assertEquals(1, unresolved.slices().size());
+		final MavenReactor extension = MavenReactor.of(linked("extension",
+				"<build><extensions><extension><groupId>g</groupId>"
+						+ "<artifactId>web</artifactId></extension>"
+						+ "</extensions></build>"));
+		assertFalse(extension.isSliceable());
+		assertEquals(1, extension.slices().size());
+		assertTrue(MavenReactor.of(
+				linked("external", "<dependencies><dependency>"
+						+ "<groupId>${unknown}</groupId>"
+						+ "<artifactId>other</artifactId></dependency>"
+						+ "</dependencies>")).isSliceable());
+	}
+
+	@Test
+	public void setsThreadsSupportedByTheInstallation() throws Exception {
+		Assume.assumeTrue(Runtime.getRuntime().availableProcessors() > 1);
+		final File pom = nested();
+		final InvocationRequest request = MavenCommand.generateCommand(
+				pom.getParentFile(), Collections.singletonList("install"),
+				new Properties());
+		MavenReactor.withParallelism(request, new MavenInstallation(new File(
+				"home"), new File("home/bin/mvn"), "2.2.1", null, null, 0));
+		assertNull(request.getThreads());
+		MavenReactor.withParallelism(request, new MavenInstallation(new File(
+				"home"), new File("home/bin/mvn"), "3.0.5", null, null, 0));
+		assertEquals("2", request.getThreads());
+	}
+
+	@Test
+	public void buildsTheAggregatorsOnceAfterTheSlices() throws Exception {
+		final File pom = nested();
+		final List<List<String>> projects = Collections
+				.synchronizedList(new ArrayList<List<String>>());
+		final ReplayInvoker invoker = new ReplayInvoker(
+				Arrays.asList(recording("install", 0, 0, "built")),
+				ReplayInvoker.MAX_SPEED, 1) {
+			@Override
+			public InvocationResult execute(final InvocationRequest request)
+					throws MavenInvocationException {
+				assertFalse(request.isAlsoMake());
+				projects.add(request.getProjects());
+				return super.execute(request);
+			}
+		};
+		final InvocationRequest request = MavenCommand.generateCommand(
+				pom.getParentFile(), Collections.singletonList("install"),
+				new Properties());
+
+		final StandardOutputError result = MavenReactor.executeSliced(request,
+				invoker);
+		assertEquals(0, result.exitCode);
+		assertEquals(Arrays.asList("built", "built", "built"), result.stdout);
+		assertEquals(Arrays.asList("g:root"), projects.get(2));
+		assertEquals(
+				new HashSet<List<String>>(Arrays.asList(
+						Arrays.asList("g:core", "g:api"),
+						Arrays.asList("g:web"))),
+				new HashSet<List<String>>(projects.subList(0, 2)));
+	}
+}
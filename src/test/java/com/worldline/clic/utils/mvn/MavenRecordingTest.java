@@ -0,0 +1,124 @@
+package com.worldline.clic.utils.mvn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MavenRecordingTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static MavenRecording recording(final String goal, final int exitCode,
+			final long duration, final String... lines) {
+		return recording(goal, "", exitCode, duration, lines);
+	}
+
+	static MavenRecording recording(final String goal, final String context,
+			final int exitCode, final long duration, final String... lines) {
+		final Map<String, String> properties = new TreeMap<String, String>();
+		properties.put("b", "2");
+		properties.put("a", "é 1");
+		final List<MavenRecording.Line> recorded = new ArrayList<MavenRecording.Line>();
+		for (int i = 0; i < lines.length; i++)
+			recorded.add(new MavenRecording.Line(i % 2 == 0 ? MavenRecording.OUTPUT
+					: MavenRecording.ERROR, i * 10, lines[i]));
+		return new MavenRecording(Collections.singletonList(goal), properties,
+				context, recorded, exitCode, duration);
+	}
+
+	@Test
+	public void writeAndReadRoundTrip() throws Exception {
+		final MavenRecording recording = recording("g:a:1:run",
+				"-f /p/pom.xml -pl g:a", 3, 1234, "out", "err", "out again");
+		final File file = folder.newFile("one" + MavenRecording.EXTENSION);
+		recording.write(file);
+
+		final MavenRecording read = MavenRecording.read(file);
+		assertEquals(recording.goals, read.goals);
+		assertEquals(recording.properties, read.properties);
+		assertEquals(recording.context, read.context);
+		assertEquals(recording.exitCode, read.exitCode);
+		assertEquals(recording.duration, read.duration);
+		assertEquals(recording.lines.size(), read.lines.size());
+		for (int i = 0; i < recording.lines.size(); i++) {
+			assertEquals(recording.lines.get(i).stream,
+					read.lines.get(i).stream);
+			assertEquals(recording.lines.get(i).offset,
+					read.lines.get(i).offset);
+			assertEquals(recording.lines.get(i).text, read.lines.get(i).text);
+		}
+		assertEquals(recording.key(), read.key());
+	}
+
+	@Test
+	public void readAllOnlyReadsRecordings() throws Exception {
+		recording("a", 0, 1).write(
+				new File(folder.getRoot(), "1" + MavenRecording.EXTENSION));
+		recording("b", 0, 1).write(
+				new File(folder.getRoot(), "2" + MavenRecording.EXTENSION));
+		folder.newFile("other.txt");
+		assertEquals(2, MavenRecording.readAll(folder.getRoot()).size());
+	}
+
+	@Test
+	public void keyDoesNotDependOnPropertiesOrder() {
+		final InvocationRequest first = MavenCommand.generateCommand(
+				folder.getRoot(), Arrays.asList("g:a:1:run"), new Properties());
+		first.getProperties().put("a", "é 1");
+		first.getProperties().put("b", "2");
+		final Properties properties = new Properties();
+		properties.put("b", "2");
+		properties.put("a", "é 1");
+		final InvocationRequest second = MavenCommand.generateCommand(
+				folder.getRoot(), Arrays.asList("g:a:1:run"), properties);
+		assertEquals(MavenRecording.keyOf(first), MavenRecording.keyOf(second));
+		assertEquals(recording("g:a:1:run", MavenRecording.contextOf(first),
+				0, 0).key(), MavenRecording.keyOf(first));
+	}
+
+	@Test
+	public void keyDependsOnTheSelectedProjects() throws Exception {
+		final InvocationRequest request = MavenCommand.generateCommand(
+				folder.getRoot(), Arrays.asList("install"), new Properties());
+		final String key = MavenRecording.keyOf(request);
+
+		final InvocationRequest other = MavenCommand.generateCommand(
+				folder.newFolder("other"), Arrays.asList("install"),
+				new Properties());
+		assertFalse(key.equals(MavenRecording.keyOf(other)));
+		request.setProjects(Arrays.asList("g:a"));
+		final String module = MavenRecording.keyOf(request);
+		assertFalse(key.equals(module));
+		request.setAlsoMake(true);
+		assertFalse(module.equals(MavenRecording.keyOf(request)));
+		request.setProfiles(Arrays.asList("release"));
+		assertTrue(MavenRecording.keyOf(request).endsWith(
+				" -P release -pl g:a -am"));
+		assertEquals(MavenRecording.commandKeyOf(request),
+				MavenRecording.commandKeyOf(other));
+	}
+
+	@Test
+	public void splitsOutputsByStream() {
+		final StandardOutputError result = recording("a", 2, 0, "o1", "e1",
+				"o2").toStandardOutputError();
+		assertEquals(Arrays.asList("o1", "o2"), result.stdout);
+		assertEquals(Arrays.asList("e1"), result.stderr);
+		assertEquals(2, result.exitCode);
+	}
+}
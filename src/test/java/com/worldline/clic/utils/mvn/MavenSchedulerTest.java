@@ -0,0 +1,167 @@
+package com.worldline.clic.utils.mvn;
+
+import static com.worldline.clic.utils.mvn.MavenRecordingTest.recording;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.worldline.clic.utils.mvn.MavenScheduler.Priority;
+
+public class MavenSchedulerTest {
+
+	private static final MavenReference REFERENCE = new MavenReference(
+			"g:a:1");
+
+	private final ReplayInvoker invoker = new ReplayInvoker(
+			Arrays.asList(recording("run", 0, 0, "done")),
+			ReplayInvoker.MAX_SPEED, 1);
+
+	private final List<String> executed = Collections
+			.synchronizedList(new ArrayList<String>());
+
+	private MavenScheduler scheduler;
+
+	@After
+	public void shutdownScheduler() {
+		if (scheduler != null)
+			scheduler.shutdown();
+	}
+
+	/**
+	 * Job replaying an invocation and logging the name of its tenant
+	 */
+	private Callable<StandardOutputError> replay(final String name) {
+		return new Callable<StandardOutputError>() {
+			@Override
+			public StandardOutputError call() throws Exception {
+				final StandardOutputError result = Maven.execute(MavenCommand
+						.generateCommand(new File("."),
+								Collections.singletonList("run"),
+								new Properties()), invoker);
+				executed.add(name);
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Occupies the only worker until the returned latch is released, so that
+	 * the following jobs are queued together
+	 */
+	private CountDownLatch block() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		scheduler.submit("blocker", Priority.BATCH, REFERENCE,
+				new Callable<StandardOutputError>() {
+					@Override
+					public StandardOutputError call() throws Exception {
+						started.countDown();
+						release.await();
+						return null;
+					}
+				});
+		started.await();
+		return release;
+	}
+
+	private static int count(final List<String> names, final String name) {
+		int count = 0;
+		for (final String each : names)
+			if (each.equals(name))
+				count++;
+		return count;
+	}
+
+	@Test
+	public void sharesExecutionsAccordingToWeights() throws Exception {
+		scheduler = new MavenScheduler(1, 100, 50, 1);
+		scheduler.configureTenant("heavy", 3, 1);
+		scheduler.configureTenant("light", 1, 1);
+		final CountDownLatch release = block();
+		final List<Future<StandardOutputError>> futures = new ArrayList<Future<StandardOutputError>>();
+		for (int i = 0; i < 40; i++) {
+			futures.add(scheduler.submit("heavy", Priority.BATCH, REFERENCE,
+					replay("heavy")));
+			futures.add(scheduler.submit("light", Priority.BATCH, REFERENCE,
+					replay("light")));
+		}
+		release.countDown();
+		for (final Future<StandardOutputError> future : futures)
+			assertEquals(Arrays.asList("done"), future.get(10, TimeUnit.SECONDS).stdout);
+
+		final List<String> first = executed.subList(0, 40);
+		assertEquals(30, count(first, "heavy"));
+		assertEquals(10, count(first, "light"));
+	}
+
+	@Test
+	public void dispatchesInteractiveJobsFirst() throws Exception {
+		scheduler = new MavenScheduler(1, 100, 50, 1);
+		final CountDownLatch release = block();
+		for (int i = 0; i < 10; i++)
+			scheduler.submit("batch", Priority.BATCH, REFERENCE,
+					replay("batch"));
+		final Future<StandardOutputError> interactive = scheduler.submit(
+				"user", Priority.INTERACTIVE, REFERENCE, replay("user"));
+		release.countDown();
+		interactive.get(10, TimeUnit.SECONDS);
+		assertEquals("user", executed.get(0));
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void rejectsJobsWhenTheTenantQueueIsFull() throws Exception {
+		scheduler = new MavenScheduler(1, 100, 2, 1);
+		block();
+		for (int i = 0; i < 3; i++)
+			scheduler.submit("batch", Priority.BATCH, REFERENCE,
+					replay("batch"));
+	}
+
+	@Test
+	public void cancelledJobsDoNotInterruptTheNextOnes() throws Exception {
+		scheduler = new MavenScheduler(1, 100, 50, 1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final Future<StandardOutputError> cancelled = scheduler.submit(
+				"tenant", Priority.BATCH, REFERENCE,
+				new Callable<StandardOutputError>() {
+					@Override
+					public StandardOutputError call() {
+						started.countDown();
+						// ignores the interruption, like a blocking fork would
+						while (!Thread.currentThread().isInterrupted())
+							Thread.yield();
+						return null;
+					}
+				});
+		final Future<StandardOutputError> next = scheduler.submit("tenant",
+				Priority.BATCH, REFERENCE,
+				new Callable<StandardOutputError>() {
+					@Override
+					public StandardOutputError call() {
+						return new StandardOutputError(
+								Collections.<String> emptyList(),
+								Collections.<String> emptyList(), Thread
+										.currentThread().isInterrupted() ? 1
+										: 0);
+					}
+				});
+		started.await();
+		cancelled.cancel(true);
+		assertEquals(0, next.get(10, TimeUnit.SECONDS).exitCode);
+		assertTrue(scheduler.getQueueWait(Priority.BATCH).getCount() >= 2);
+	}
+}
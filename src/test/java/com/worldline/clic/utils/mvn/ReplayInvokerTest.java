@@ -0,0 +1,103 @@
+package com.worldline.clic.utils.mvn;
+
+import static com.worldline.clic.utils.mvn.MavenRecordingTest.recording;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.junit.Test;
+
+public class ReplayInvokerTest {
+
+	private static InvocationRequest request(final String goal) {
+		final Properties properties = new Properties();
+		properties.put("a", "é 1");
+		properties.put("b", "2");
+		return MavenCommand.generateCommand(new File("."),
+				Collections.singletonList(goal), properties);
+	}
+
+	@Test
+	public void replaysTheRecordingMatchingTheRequest() throws Exception {
+		final ReplayInvoker invoker = new ReplayInvoker(Arrays.asList(
+				recording("first", 0, 0, "first out"),
+				recording("second", 4, 0, "second out", "second err")),
+				ReplayInvoker.MAX_SPEED, 1);
+
+		final StandardOutputError second = Maven.execute(request("second"),
+				invoker);
+		assertEquals(Arrays.asList("second out"), second.stdout);
+		assertEquals(Arrays.asList("second err"), second.stderr);
+		assertEquals(4, second.exitCode);
+
+		final StandardOutputError first = Maven.execute(request("first"),
+				invoker);
+		assertEquals(Arrays.asList("first out"), first.stdout);
+		assertEquals(0, first.exitCode);
+	}
+
+	@Test
+	public void prefersTheRecordingOfTheSameProject() throws Exception {
+		final InvocationRequest request = request("install");
+		final InvocationRequest other = request("install");
+		other.setProjects(Arrays.asList("g:other"));
+		final ReplayInvoker invoker = new ReplayInvoker(Arrays.asList(
+				recording("install", MavenRecording.contextOf(other), 1, 0),
+				recording("install", MavenRecording.contextOf(request), 2, 0)),
+				ReplayInvoker.MAX_SPEED, 1);
+		assertEquals(2, Maven.execute(request, invoker).exitCode);
+		assertEquals(1, Maven.execute(other, invoker).exitCode);
+
+		request.setProfiles(Arrays.asList("elsewhere"));
+		assertEquals(1, Maven.execute(request, invoker).exitCode);
+		assertEquals(1, Maven.execute(request, invoker).exitCode);
+	}
+
+	@Test
+	public void fallsBackToRecordingsInTurn() throws Exception {
+		final ReplayInvoker invoker = new ReplayInvoker(Arrays.asList(
+				recording("first", 1, 0), recording("second", 2, 0)),
+				ReplayInvoker.MAX_SPEED, 1);
+		assertEquals(1, Maven.execute(request("unknown"), invoker).exitCode);
+		assertEquals(2, Maven.execute(request("unknown"), invoker).exitCode);
+		assertEquals(1, Maven.execute(request("unknown"), invoker).exitCode);
+	}
+
+	@Test
+	public void replaysAtTheRequestedSpeed() throws Exception {
+		final MavenRecording slow = recording("slow", 0, 400, "line");
+
+		long start = System.nanoTime();
+		Maven.execute(request("slow"), new ReplayInvoker(Arrays.asList(slow),
+				ReplayInvoker.REAL_TIME, 1));
+		final long realTime = elapsed(start);
+		assertTrue("real time replay took " + realTime, realTime >= 400);
+
+		start = System.nanoTime();
+		Maven.execute(request("slow"), new ReplayInvoker(Arrays.asList(slow),
+				4, 1));
+		final long accelerated = elapsed(start);
+		assertTrue("accelerated replay took " + accelerated,
+				accelerated >= 100 && accelerated < 400);
+
+		start = System.nanoTime();
+		Maven.execute(request("slow"), new ReplayInvoker(Arrays.asList(slow),
+				ReplayInvoker.MAX_SPEED, 1));
+		assertTrue(elapsed(start) < 100);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNegativeSpeeds() {
+		new ReplayInvoker(Arrays.asList(recording("a", 0, 0)), -1, 1);
+	}
+
+	private static long elapsed(final long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+}